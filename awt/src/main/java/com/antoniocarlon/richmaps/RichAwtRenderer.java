@@ -0,0 +1,280 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.FontMetrics;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Renderer drawing into a java.awt BufferedImage, so the shapes can be drawn on a plain
+ * JVM (e.g. on a server, or in tests without Robolectric). It lives out of the library
+ * because Android has no java.awt, and as it only sees RichRenderer, the Android shaders,
+ * path effects and mask filters of the shapes are not drawn.
+ */
+public class RichAwtRenderer implements RichRenderer {
+    private final BufferedImage image;
+    private final Graphics2D graphics;
+    private final Path2D.Float path = new Path2D.Float();
+    private final Line2D.Float line = new Line2D.Float();
+    private final Ellipse2D.Float dot = new Ellipse2D.Float();
+    private final List<AffineTransform> savedTransforms = new ArrayList<>();
+    private final List<Shape> savedClips = new ArrayList<>();
+
+    private boolean antialias = true;
+    private float simplifyTolerance = 0;
+    private BasicStroke stroke = new BasicStroke(1);
+    private boolean strokeAntialias = true;
+    private float[] screenBuffer = new float[64];
+
+    public RichAwtRenderer(final int width, final int height) {
+        this(new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB));
+    }
+
+    public RichAwtRenderer(final BufferedImage image) {
+        if (image == null) {
+            throw new IllegalArgumentException("Image cannot be null");
+        }
+
+        this.image = image;
+        this.graphics = image.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL,
+                RenderingHints.VALUE_STROKE_PURE);
+    }
+
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    /**
+     * Releases the graphics of the image. The renderer can't be used afterwards.
+     */
+    public void dispose() {
+        graphics.dispose();
+    }
+
+    @Override
+    public int getWidth() {
+        return image.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return image.getHeight();
+    }
+
+    @Override
+    public void setQuality(final boolean antialias, final boolean effects,
+                           final float simplifyTolerance) {
+        this.antialias = antialias;
+        this.simplifyTolerance = simplifyTolerance;
+    }
+
+    @Override
+    public float getSimplifyTolerance() {
+        return simplifyTolerance;
+    }
+
+    @Override
+    public float[] getScreenBuffer(final int count) {
+        if (screenBuffer.length < count * 2) {
+            screenBuffer = new float[count * 2];
+        }
+        return screenBuffer;
+    }
+
+    @Override
+    public int save() {
+        savedTransforms.add(graphics.getTransform());
+        savedClips.add(graphics.getClip());
+        return savedTransforms.size() - 1;
+    }
+
+    @Override
+    public void restoreToCount(final int saveCount) {
+        if (saveCount < 0 || saveCount >= savedTransforms.size()) {
+            throw new IllegalStateException("Invalid save count " + saveCount);
+        }
+
+        // The transformation is restored first, as the clip is set relative to it
+        graphics.setTransform(savedTransforms.get(saveCount));
+        graphics.setClip(savedClips.get(saveCount));
+        while (savedTransforms.size() > saveCount) {
+            savedTransforms.remove(savedTransforms.size() - 1);
+            savedClips.remove(savedClips.size() - 1);
+        }
+    }
+
+    @Override
+    public void scale(final float scale) {
+        graphics.scale(scale, scale);
+    }
+
+    @Override
+    public void translate(final float dx, final float dy) {
+        graphics.translate(dx, dy);
+    }
+
+    @Override
+    public void clipRect(final float left, final float top, final float right,
+                         final float bottom) {
+        graphics.clip(new Rectangle2D.Float(left, top, right - left, bottom - top));
+    }
+
+    @Override
+    public boolean quickReject(final float left, final float top, final float right,
+                               final float bottom) {
+        Shape clip = graphics.getClip();
+        return clip != null && !clip.intersects(left, top, right - left, bottom - top);
+    }
+
+    @Override
+    public void clear() {
+        // The clip applies in device coordinates, so the whole image can be filled
+        AffineTransform transform = graphics.getTransform();
+        Composite composite = graphics.getComposite();
+        graphics.setTransform(new AffineTransform());
+        graphics.setComposite(AlphaComposite.Clear);
+        graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+        graphics.setComposite(composite);
+        graphics.setTransform(transform);
+    }
+
+    @Override
+    public void moveTo(final float x, final float y) {
+        path.moveTo(x, y);
+    }
+
+    @Override
+    public void lineTo(final float x, final float y) {
+        path.lineTo(x, y);
+    }
+
+    @Override
+    public void closePath() {
+        path.closePath();
+    }
+
+    @Override
+    public void addCircle(final float x, final float y, final float radius) {
+        path.append(new Ellipse2D.Float(x - radius, y - radius, radius * 2, radius * 2), false);
+    }
+
+    @Override
+    public void setStroke(final float width, final RichPaint.Cap cap, final RichPaint.Join join,
+                          final boolean strokeAntialias) {
+        this.stroke = new BasicStroke(width, toAwt(cap), toAwt(join));
+        this.strokeAntialias = strokeAntialias;
+    }
+
+    @Override
+    public void strokePath(final int color) {
+        setAntialias(strokeAntialias && antialias);
+        graphics.setStroke(stroke);
+        graphics.setColor(new Color(color, true));
+        graphics.draw(path);
+        path.reset();
+    }
+
+    @Override
+    public void strokeLine(final float fromX, final float fromY,
+                           final float toX, final float toY,
+                           final int fromColor, final int toColor) {
+        setAntialias(strokeAntialias && antialias);
+        graphics.setStroke(stroke);
+        if (fromX == toX && fromY == toY) {
+            graphics.setColor(new Color(fromColor, true));
+        } else {
+            graphics.setPaint(new GradientPaint(fromX, fromY, new Color(fromColor, true),
+                    toX, toY, new Color(toColor, true)));
+        }
+        line.setLine(fromX, fromY, toX, toY);
+        graphics.draw(line);
+    }
+
+    @Override
+    public void fillPath(final int color, final boolean fillAntialias) {
+        setAntialias(fillAntialias && antialias);
+        graphics.setColor(new Color(color, true));
+        graphics.fill(path);
+        path.reset();
+    }
+
+    @Override
+    public void erasePath(final boolean eraseAntialias) {
+        setAntialias(eraseAntialias && antialias);
+        Composite composite = graphics.getComposite();
+        graphics.setComposite(AlphaComposite.Clear);
+        graphics.fill(path);
+        graphics.setComposite(composite);
+        path.reset();
+    }
+
+    @Override
+    public void drawPoints(final float[] points, final int offset, final int count,
+                           final int color, final float size) {
+        setAntialias(antialias);
+        graphics.setColor(new Color(color, true));
+        for (int i = offset; i < offset + count; i++) {
+            dot.setFrame(points[i * 2] - size / 2, points[i * 2 + 1] - size / 2, size, size);
+            graphics.fill(dot);
+        }
+    }
+
+    @Override
+    public void drawText(final String text, final float x, final float y, final int color,
+                         final float size) {
+        setAntialias(antialias);
+        graphics.setColor(new Color(color, true));
+        graphics.setFont(graphics.getFont().deriveFont(size));
+        FontMetrics metrics = graphics.getFontMetrics();
+        graphics.drawString(text, x - metrics.stringWidth(text) / 2f, y);
+    }
+
+    private void setAntialias(final boolean enabled) {
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, enabled
+                ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
+    }
+
+    private static int toAwt(final RichPaint.Cap cap) {
+        if (cap == RichPaint.Cap.BUTT) {
+            return BasicStroke.CAP_BUTT;
+        }
+        return cap == RichPaint.Cap.SQUARE ? BasicStroke.CAP_SQUARE : BasicStroke.CAP_ROUND;
+    }
+
+    private static int toAwt(final RichPaint.Join join) {
+        if (join == RichPaint.Join.ROUND) {
+            return BasicStroke.JOIN_ROUND;
+        }
+        return join == RichPaint.Join.BEVEL ? BasicStroke.JOIN_BEVEL : BasicStroke.JOIN_MITER;
+    }
+}
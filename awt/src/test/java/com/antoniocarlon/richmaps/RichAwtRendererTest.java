@@ -0,0 +1,110 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Drawing of RichAwtRenderer, on a plain JVM.
+ */
+public class RichAwtRendererTest {
+    private static final int SIZE = 100;
+    private static final int RED = 0xFFFF0000;
+    private static final int BLUE = 0xFF0000FF;
+
+    private RichAwtRenderer renderer;
+
+    @Before
+    public void setUp() {
+        renderer = new RichAwtRenderer(SIZE, SIZE);
+        renderer.setQuality(false, true, 0); // No antialias, so the pixels are exact
+    }
+
+    @After
+    public void tearDown() {
+        renderer.dispose();
+    }
+
+    @Test
+    public void fillsAShapeWithAHole() {
+        square(20, 80);
+        renderer.fillPath(BLUE, false);
+        square(40, 60);
+        renderer.erasePath(false);
+
+        assertEquals(BLUE, pixel(30, 30));
+        assertEquals(0, pixel(50, 50));
+        assertEquals(0, pixel(10, 10));
+    }
+
+    @Test
+    public void strokesAShape() {
+        renderer.setStroke(4, RichPaint.Cap.BUTT, RichPaint.Join.MITER, false);
+        square(20, 80);
+        renderer.strokePath(RED);
+
+        assertEquals(RED, pixel(20, 50));
+        assertEquals(RED, pixel(50, 80));
+        assertEquals(0, pixel(50, 50));
+        assertEquals(0, pixel(50, 10));
+    }
+
+    @Test
+    public void restoresTheTransformAndTheClip() {
+        int saveCount = renderer.save();
+        renderer.translate(50, 0);
+        renderer.clipRect(0, 0, 25, SIZE);
+        assertTrue(renderer.quickReject(30, 0, 40, 10));
+        square(0, 40);
+        renderer.fillPath(BLUE, false);
+        renderer.restoreToCount(saveCount);
+
+        assertEquals(BLUE, pixel(60, 20));
+        assertEquals(0, pixel(80, 20)); // Clipped
+        assertEquals(0, pixel(20, 20)); // Not translated
+        assertFalse(renderer.quickReject(30, 0, 40, 10));
+    }
+
+    @Test
+    public void clearsTheImage() {
+        renderer.scale(0.5f);
+        square(0, SIZE * 2);
+        renderer.fillPath(RED, false);
+        renderer.clear();
+
+        assertEquals(0, pixel(10, 10));
+        assertEquals(0, pixel(SIZE - 1, SIZE - 1));
+    }
+
+    private void square(final float from, final float to) {
+        renderer.moveTo(from, from);
+        renderer.lineTo(to, from);
+        renderer.lineTo(to, to);
+        renderer.lineTo(from, to);
+        renderer.closePath();
+    }
+
+    private int pixel(final int x, final int y) {
+        return renderer.getImage().getRGB(x, y);
+    }
+}
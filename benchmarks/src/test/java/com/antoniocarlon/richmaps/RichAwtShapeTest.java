@@ -0,0 +1,87 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+import static org.junit.Assert.assertEquals;
+
+import android.graphics.Color;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Shapes drawn through RichAwtRenderer. They only use RichRenderer, so unlike the tests
+ * drawing into a Bitmap these don't run inside Robolectric.
+ */
+public class RichAwtShapeTest {
+    private static final int SIZE = 256;
+
+    private RichAwtRenderer renderer;
+    private RichMercatorProjection projection;
+
+    @Before
+    public void setUp() {
+        renderer = new RichAwtRenderer(SIZE, SIZE);
+        projection = RichMercatorProjection.forTile(0, 0, 0, SIZE, 0);
+    }
+
+    @After
+    public void tearDown() {
+        renderer.dispose();
+    }
+
+    @Test
+    public void drawsAPolygonWithAHole() {
+        RichPolygon polygon = new RichPolygonOptions(new double[]{-40, -40, 40, 40},
+                new double[]{-40, 40, 40, -40}, null)
+                .addHole(new double[]{-10, -10, 10, 10}, new double[]{-10, 10, 10, -10})
+                .style(RichPaint.Style.FILL)
+                .fillColor(Color.BLUE)
+                .antialias(false)
+                .build();
+        polygon.draw(renderer, projection);
+
+        assertEquals(Color.BLUE, pixel(0, -30));
+        assertEquals(0, pixel(0, 0));
+        assertEquals(0, pixel(0, -60));
+    }
+
+    @Test
+    public void drawsAPolyline() {
+        RichPolyline polyline = new RichPolylineOptions(new double[]{60, 60},
+                new double[]{-170, 170}, null)
+                .strokeColor(Color.RED)
+                .strokeWidth(4)
+                .strokeCap(RichPaint.Cap.BUTT)
+                .antialias(false)
+                .build();
+        polyline.draw(renderer, projection);
+
+        assertEquals(Color.RED, pixel(60, 0));
+        assertEquals(Color.RED, pixel(60, 100));
+        assertEquals(0, pixel(50, 0));
+        assertEquals(0, pixel(60, 175));
+    }
+
+    private int pixel(final double latitude, final double longitude) {
+        float[] screen = new float[2];
+        projection.toScreenLocations(new double[]{RichUtils.toWorldX(longitude),
+                RichUtils.toWorldY(latitude)}, 1, screen);
+        return renderer.getImage().getRGB((int) screen[0], (int) screen[1]);
+    }
+}
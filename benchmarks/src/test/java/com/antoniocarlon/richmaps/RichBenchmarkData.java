@@ -0,0 +1,234 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.content.res.Resources;
+import android.graphics.Color;
+import android.graphics.Point;
+import android.util.DisplayMetrics;
+import android.view.View;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.Projection;
+import com.google.android.gms.maps.UiSettings;
+import com.google.android.gms.maps.model.CameraPosition;
+import com.google.android.gms.maps.model.GroundOverlay;
+import com.google.android.gms.maps.model.GroundOverlayOptions;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.VisibleRegion;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Random;
+
+/**
+ * Synthetic datasets and a stubbed map doing Web Mercator math for the benchmarks.
+ */
+final class RichBenchmarkData {
+    static final LatLng CENTER = new LatLng(40.4168, -3.7038);
+    static final float ZOOM = 12;
+    static final int WIDTH = 1024;
+    static final int HEIGHT = 1024;
+    static final float DENSITY = 2;
+    static final double SPAN = 0.08; // In degrees around the center, about the visible area
+
+    private static final int[] PALETTE = new int[]{
+            Color.RED, Color.GREEN, Color.BLUE, Color.YELLOW, Color.CYAN, Color.MAGENTA};
+
+    private RichBenchmarkData() {
+    }
+
+    /**
+     * Random walk of count vertices bouncing inside the visible area, as latitudes and
+     * longitudes.
+     */
+    static double[][] randomWalk(final int count, final long seed) {
+        Random random = new Random(seed);
+        double[] latitudes = new double[count];
+        double[] longitudes = new double[count];
+        double step = SPAN * 8 / Math.sqrt(count);
+        double latitude = CENTER.latitude;
+        double longitude = CENTER.longitude;
+        for (int i = 0; i < count; i++) {
+            latitude = bounce(latitude + (random.nextDouble() - 0.5) * step, CENTER.latitude);
+            longitude = bounce(longitude + (random.nextDouble() - 0.5) * step, CENTER.longitude);
+            latitudes[i] = latitude;
+            longitudes[i] = longitude;
+        }
+        return new double[][]{latitudes, longitudes};
+    }
+
+    private static double bounce(final double value, final double center) {
+        if (value > center + SPAN) {
+            return 2 * (center + SPAN) - value;
+        }
+        if (value < center - SPAN) {
+            return 2 * (center - SPAN) - value;
+        }
+        return value;
+    }
+
+    /**
+     * Star-shaped ring (never self-intersecting) of count vertices around the given center.
+     */
+    static double[][] ring(final int count, final LatLng center, final double radius,
+                           final long seed) {
+        Random random = new Random(seed);
+        double[] latitudes = new double[count];
+        double[] longitudes = new double[count];
+        for (int i = 0; i < count; i++) {
+            double angle = 2 * Math.PI * i / count;
+            double r = radius * (0.7 + 0.3 * random.nextDouble());
+            latitudes[i] = center.latitude + r * Math.sin(angle);
+            longitudes[i] = center.longitude + r * Math.cos(angle);
+        }
+        return new double[][]{latitudes, longitudes};
+    }
+
+    /**
+     * Colors changing every runLength vertices.
+     */
+    static int[] colors(final int count, final int runLength) {
+        int[] colors = new int[count];
+        for (int i = 0; i < count; i++) {
+            colors[i] = PALETTE[(i / runLength) % PALETTE.length];
+        }
+        return colors;
+    }
+
+    /**
+     * Colors of a track by its speed, a random profile changing smoothly along the vertices
+     * mapped to a green-yellow-red ramp.
+     */
+    static int[] speedColors(final int count, final long seed) {
+        Random random = new Random(seed);
+        int[] colors = new int[count];
+        double speed = 0.5;
+        for (int i = 0; i < count; i++) {
+            speed = Math.max(0, Math.min(1, speed + (random.nextDouble() - 0.5) * 0.02));
+            colors[i] = speed < 0.5
+                    ? Color.rgb((int) (speed * 2 * 255), 255, 0)
+                    : Color.rgb(255, (int) ((1 - speed) * 2 * 255), 0);
+        }
+        return colors;
+    }
+
+    static CameraPosition camera(final LatLng target, final float bearing) {
+        return new CameraPosition(target, ZOOM, 0, bearing);
+    }
+
+    static RichMercatorProjection projection(final CameraPosition camera) {
+        return RichMercatorProjection.fromCamera(camera, WIDTH, HEIGHT, DENSITY);
+    }
+
+    /**
+     * Camera position shown by a stubbed map, changed by the benchmarks.
+     */
+    static class Camera {
+        CameraPosition position = camera(CENTER, 0);
+        // Padding of the map (see GoogleMap.setPadding), moving the target off the center
+        int paddingLeft = 0;
+        int paddingTop = 0;
+    }
+
+    static View view() {
+        DisplayMetrics metrics = new DisplayMetrics();
+        metrics.density = DENSITY;
+        Resources resources = mock(Resources.class);
+        when(resources.getDisplayMetrics()).thenReturn(metrics);
+
+        View view = mock(View.class);
+        when(view.getWidth()).thenReturn(WIDTH);
+        when(view.getHeight()).thenReturn(HEIGHT);
+        when(view.getResources()).thenReturn(resources);
+        return view;
+    }
+
+    static GoogleMap map(final Camera camera) {
+        GoogleMap map = mock(GoogleMap.class);
+        when(map.getUiSettings()).thenReturn(mock(UiSettings.class));
+        when(map.addGroundOverlay(any(GroundOverlayOptions.class)))
+                .thenReturn(mock(GroundOverlay.class));
+        when(map.getCameraPosition()).thenAnswer(new Answer<CameraPosition>() {
+            @Override
+            public CameraPosition answer(final InvocationOnMock invocation) {
+                return camera.position;
+            }
+        });
+        when(map.getProjection()).thenAnswer(new Answer<Projection>() {
+            @Override
+            public Projection answer(final InvocationOnMock invocation) {
+                return mapProjection(camera);
+            }
+        });
+        return map;
+    }
+
+    /**
+     * Projection of the map for the camera, doing the same Web Mercator math as the map.
+     */
+    static Projection mapProjection(final Camera camera) {
+        // The target is drawn at the center of the area inside the padding
+        RichMercatorProjection centered = projection(camera.position);
+        double x = (WIDTH - camera.paddingLeft) / 2.0;
+        double y = (HEIGHT - camera.paddingTop) / 2.0;
+        final RichMercatorProjection mercator = new RichMercatorProjection(
+                centered.toWorldX(x, y), centered.toWorldY(x, y), centered.getScale(),
+                camera.position.bearing, WIDTH, HEIGHT, 0);
+        Projection projection = mock(Projection.class);
+        when(projection.toScreenLocation(any(LatLng.class))).thenAnswer(new Answer<Point>() {
+            @Override
+            public Point answer(final InvocationOnMock invocation) {
+                LatLng position = invocation.getArgument(0);
+                float[] screen = new float[2];
+                mercator.toScreenLocations(new double[]{
+                        RichUtils.toWorldX(position.longitude),
+                        RichUtils.toWorldY(position.latitude)}, 1, screen);
+                return new Point(Math.round(screen[0]), Math.round(screen[1]));
+            }
+        });
+        when(projection.fromScreenLocation(any(Point.class))).thenAnswer(new Answer<LatLng>() {
+            @Override
+            public LatLng answer(final InvocationOnMock invocation) {
+                Point point = invocation.getArgument(0);
+                return fromScreen(mercator, point.x, point.y);
+            }
+        });
+
+        LatLng nearLeft = fromScreen(mercator, 0, HEIGHT);
+        LatLng nearRight = fromScreen(mercator, WIDTH, HEIGHT);
+        LatLng farLeft = fromScreen(mercator, 0, 0);
+        LatLng farRight = fromScreen(mercator, WIDTH, 0);
+        LatLngBounds bounds = LatLngBounds.builder().include(nearLeft).include(nearRight)
+                .include(farLeft).include(farRight).build();
+        when(projection.getVisibleRegion()).thenReturn(
+                new VisibleRegion(nearLeft, nearRight, farLeft, farRight, bounds));
+        return projection;
+    }
+
+    private static LatLng fromScreen(final RichMercatorProjection mercator,
+                                     final float x, final float y) {
+        return new LatLng(RichUtils.toLatitude(mercator.toWorldY(x, y)),
+                RichUtils.toLongitude(mercator.toWorldX(x, y)));
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+/**
+ * Runs the JMH benchmarks inside Robolectric, whose native graphics mode rasterizes
+ * android.graphics on the JVM. They only run when selected with -Pjmh.include=regex
+ * (e.g. .*Benchmark for all of them), so the unit tests stay fast. The allocation rate is
+ * added with -Pjmh.gc=true.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class RichBenchmarkRunner {
+    @Test
+    public void run() throws RunnerException {
+        String include = System.getProperty("jmh.include");
+        Assume.assumeTrue("Benchmarks not selected", include != null);
+
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .include(include)
+                // The benchmarks need the Robolectric sandbox of this test, so they are not forked
+                .forks(0)
+                .warmupIterations(3)
+                .warmupTime(TimeValue.seconds(2))
+                .measurementIterations(5)
+                .measurementTime(TimeValue.seconds(2));
+        if (Boolean.parseBoolean(System.getProperty("jmh.gc", "false"))) {
+            options.addProfiler(GCProfiler.class);
+        }
+        new Runner(options.build()).run();
+    }
+}
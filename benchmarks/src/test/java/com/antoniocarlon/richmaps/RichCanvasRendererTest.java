@@ -0,0 +1,75 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.Shader;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+/**
+ * Gradient shaders of RichCanvasRenderer, cached so drawing gradient segments doesn't
+ * allocate.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class RichCanvasRendererTest {
+    private RichCanvasRenderer renderer;
+
+    @Before
+    public void setUp() {
+        renderer = new RichCanvasRenderer(Bitmap.createBitmap(64, 64, Bitmap.Config.ARGB_8888));
+    }
+
+    @Test
+    public void reusesTheGradientOfTheSameColors() {
+        Shader first = renderer.gradient(Color.RED, Color.BLUE, 0, 0, 10, 0);
+        renderer.strokeLine(0, 0, 10, 0, Color.RED, Color.BLUE);
+        renderer.strokeLine(10, 0, 20, 30, Color.RED, Color.BLUE);
+
+        // Same colors at another position, the shader is only moved
+        assertSame(first, renderer.gradient(Color.RED, Color.BLUE, 10, 0, 20, 30));
+        assertNotSame(first, renderer.gradient(Color.GREEN, Color.BLUE, 0, 0, 10, 0));
+        assertNotSame(first, renderer.gradient(Color.BLUE, Color.RED, 0, 0, 10, 0));
+    }
+
+    @Test
+    public void reusesTheGradientOfCloseColors() {
+        Shader first = renderer.gradient(0xFF10C000, 0xFFC01000, 0, 0, 10, 0);
+
+        // Colors of a speed ramp differing in the lowest bits of their channels
+        assertSame(first, renderer.gradient(0xFF11C101, 0xFFC11101, 10, 0, 20, 30));
+        assertNotSame(first, renderer.gradient(0xFF30C000, 0xFFC01000, 0, 0, 10, 0));
+        assertNull(renderer.gradient(0xFF10C000, 0xFF11C101, 0, 0, 10, 0));
+    }
+
+    @Test
+    public void hasNoGradientForAPoint() {
+        assertNull(renderer.gradient(Color.RED, Color.BLUE, 5, 5, 5, 5));
+    }
+}
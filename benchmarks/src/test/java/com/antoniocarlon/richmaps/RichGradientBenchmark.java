@@ -0,0 +1,68 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+import android.graphics.Bitmap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of a linear gradient track colored by its speed, where almost every
+ * segment has different colors. Run it with -Pjmh.gc=true to see how many gradient
+ * shaders are allocated per frame (gc.alloc.rate.norm).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RichGradientBenchmark {
+    @Param({"1000", "100000"})
+    int vertices;
+
+    private RichPolyline polyline;
+    private RichRenderer renderer;
+    private RichMercatorProjection projection;
+
+    @Setup
+    public void setUp() {
+        double[][] walk = RichBenchmarkData.randomWalk(vertices, 1);
+        polyline = new RichPolylineOptions(walk[0], walk[1],
+                RichBenchmarkData.speedColors(vertices, 1))
+                .linearGradient(true)
+                .strokeWidth(4)
+                .build();
+        renderer = new RichCanvasRenderer(Bitmap.createBitmap(RichBenchmarkData.WIDTH,
+                RichBenchmarkData.HEIGHT, Bitmap.Config.ARGB_8888));
+        projection = RichBenchmarkData.projection(
+                RichBenchmarkData.camera(RichBenchmarkData.CENTER, 0));
+    }
+
+    @Benchmark
+    public RichRenderer drawSpeedTrack() {
+        renderer.clear();
+        polyline.drawStroke(renderer, projection, polyline.vertices);
+        return renderer;
+    }
+}
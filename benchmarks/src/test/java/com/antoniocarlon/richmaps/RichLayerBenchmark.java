@@ -0,0 +1,98 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+
+import android.graphics.Bitmap;
+
+import com.google.android.gms.maps.model.BitmapDescriptor;
+import com.google.android.gms.maps.model.BitmapDescriptorFactory;
+import com.google.android.gms.maps.model.LatLng;
+
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of RichLayer.refresh rendering a full frame synchronously, with the camera
+ * moving on each refresh so the previous frame can't be reused.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RichLayerBenchmark {
+    private static final int VERTICES_PER_SHAPE = 1000;
+
+    @Param({"1000", "100000", "1000000"})
+    int vertices;
+
+    private RichBenchmarkData.Camera camera = new RichBenchmarkData.Camera();
+    private RichLayer layer;
+    private MockedStatic<BitmapDescriptorFactory> descriptors;
+    private int frame;
+
+    @Setup
+    public void setUp() {
+        // The map is not initialized, so the overlay image is stubbed
+        descriptors = Mockito.mockStatic(BitmapDescriptorFactory.class);
+        descriptors.when(new MockedStatic.Verification() {
+            @Override
+            public void apply() {
+                BitmapDescriptorFactory.fromBitmap(any(Bitmap.class));
+            }
+        }).thenReturn(mock(BitmapDescriptor.class));
+
+        layer = new RichLayer.Builder(RichBenchmarkData.view(), RichBenchmarkData.map(camera))
+                .build();
+        for (int i = 0; i < vertices / VERTICES_PER_SHAPE; i++) {
+            double[][] walk = RichBenchmarkData.randomWalk(VERTICES_PER_SHAPE, i);
+            layer.addShape(new RichPolylineOptions(walk[0], walk[1],
+                    RichBenchmarkData.colors(VERTICES_PER_SHAPE, 100))
+                    .zIndex(i % 4)
+                    .strokeWidth(3)
+                    .build());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        layer.release();
+        descriptors.close();
+    }
+
+    @Benchmark
+    public void refresh() {
+        // Pans a few pixels back and forth
+        double offset = (frame++ % 2) * 0.0005;
+        camera.position = RichBenchmarkData.camera(new LatLng(
+                RichBenchmarkData.CENTER.latitude + offset,
+                RichBenchmarkData.CENTER.longitude + offset), 0);
+        layer.refresh();
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Shapes added, extended and removed by several threads while the layer renders them.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class RichLayerConcurrencyTest {
+    private static final int WRITERS = 4;
+    private static final int SHAPES = 500; // Per writer
+    private static final int TILE_SIZE = 256;
+    private static final int ZOOM = 12;
+    private static final double SPAN = 0.02; // In degrees around the center, inside its tile
+
+    @Test
+    public void keepsTheShapesOfConcurrentWriters() throws InterruptedException {
+        final RichLayer layer = new RichLayer.Builder(RichBenchmarkData.view(),
+                RichBenchmarkData.map(new RichBenchmarkData.Camera())).build();
+        final RichTileProvider provider = new RichTileProvider(layer, TILE_SIZE,
+                Bitmap.Config.ARGB_8888);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final CountDownLatch start = new CountDownLatch(1);
+
+        final List<List<RichShape>> kept = new ArrayList<>();
+        final List<List<RichShape>> removed = new ArrayList<>();
+        List<Thread> writers = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            final List<RichShape> writerKept = new ArrayList<>();
+            final List<RichShape> writerRemoved = new ArrayList<>();
+            kept.add(writerKept);
+            removed.add(writerRemoved);
+            final Random random = new Random(w);
+            writers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        write(layer, random, writerKept, writerRemoved);
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            }));
+        }
+
+        // The renderer draws the tile of the center and picks shapes while they change
+        Thread renderer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    start.await();
+                    int tiles = 1 << ZOOM;
+                    int x = (int) (RichUtils.toWorldX(RichBenchmarkData.CENTER.longitude) * tiles);
+                    int y = (int) (RichUtils.toWorldY(RichBenchmarkData.CENTER.latitude) * tiles);
+                    while (writing.get()) {
+                        provider.getTile(x, y, ZOOM);
+                        layer.pick(RichBenchmarkData.CENTER, 8);
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        });
+
+        renderer.start();
+        for (Thread writer : writers) {
+            writer.start();
+        }
+        start.countDown();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        writing.set(false);
+        renderer.join();
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+
+        Set<RichShape> expected = new HashSet<>();
+        for (List<RichShape> writerKept : kept) {
+            expected.addAll(writerKept);
+        }
+        List<RichShape> shapes = layer.getShapes();
+        assertEquals(expected.size(), shapes.size());
+        assertEquals(expected, new HashSet<>(shapes));
+
+        // Each shape has its own drawing order, and the index has the bounds of all its points
+        Set<Long> orders = new HashSet<>();
+        for (RichShape shape : shapes) {
+            assertSame(layer, shape.layer);
+            assertTrue(orders.add(shape.order));
+        }
+        LatLngBounds around = new LatLngBounds(
+                new LatLng(RichBenchmarkData.CENTER.latitude - SPAN * 2,
+                        RichBenchmarkData.CENTER.longitude - SPAN * 2),
+                new LatLng(RichBenchmarkData.CENTER.latitude + SPAN * 2,
+                        RichBenchmarkData.CENTER.longitude + SPAN * 2));
+        assertEquals(expected, new HashSet<>(layer.shapesIn(around)));
+        for (List<RichShape> writerRemoved : removed) {
+            for (RichShape shape : writerRemoved) {
+                assertNull(shape.layer);
+            }
+        }
+    }
+
+    /**
+     * Adds shapes, extends the ones already added and removes some of them.
+     */
+    private static void write(final RichLayer layer, final Random random,
+                              final List<RichShape> kept, final List<RichShape> removed) {
+        for (int i = 0; i < SHAPES; i++) {
+            RichShape shape = new RichPolylineOptions(
+                    new double[]{latitude(random), latitude(random)},
+                    new double[]{longitude(random), longitude(random)}, null).build();
+            layer.addShape(shape);
+            kept.add(shape);
+
+            RichShape extended = kept.get(random.nextInt(kept.size()));
+            extended.add(latitude(random), longitude(random), 0xFFFF0000);
+            if (i % 3 == 0) {
+                RichShape gone = kept.remove(random.nextInt(kept.size()));
+                layer.removeShape(gone);
+                removed.add(gone);
+            }
+        }
+    }
+
+    private static double latitude(final Random random) {
+        return RichBenchmarkData.CENTER.latitude + (random.nextDouble() - 0.5) * SPAN;
+    }
+
+    private static double longitude(final Random random) {
+        return RichBenchmarkData.CENTER.longitude + (random.nextDouble() - 0.5) * SPAN;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import android.graphics.Point;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Shapes picked by RichLayer at a position or at a point of the view.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class RichLayerPickTest {
+    private static final double SIZE = 0.01; // In degrees, about 60 pixels
+    private static final int CENTER_X = RichBenchmarkData.WIDTH / 2;
+    private static final int CENTER_Y = RichBenchmarkData.HEIGHT / 2;
+
+    private RichBenchmarkData.Camera camera;
+    private RichLayer layer;
+
+    @Before
+    public void setUp() {
+        camera = new RichBenchmarkData.Camera();
+        layer = new RichLayer.Builder(RichBenchmarkData.view(),
+                RichBenchmarkData.map(camera)).build();
+    }
+
+    @Test
+    public void picksTheTopmostShape() {
+        RichShape top = square(0, SIZE, 2);
+        RichShape bottom = square(0, SIZE, 1); // Added last, but below
+        layer.addShape(top);
+        layer.addShape(bottom);
+        assertSame(top, layer.pick(RichBenchmarkData.CENTER, 0));
+
+        // With the same zIndex, the last added is drawn on top
+        RichShape last = square(0, SIZE, 2);
+        layer.addShape(last);
+        assertSame(last, layer.pick(RichBenchmarkData.CENTER, 0));
+
+        // Away from the top shapes, the one below is picked
+        RichShape wide = square(0, SIZE * 3, 0);
+        layer.addShape(wide);
+        assertSame(wide, layer.pick(new LatLng(RichBenchmarkData.CENTER.latitude,
+                RichBenchmarkData.CENTER.longitude + SIZE * 2), 0));
+    }
+
+    @Test
+    public void picksStrokesWithinTheTolerance() {
+        RichShape line = new RichPolylineOptions(
+                new double[]{RichBenchmarkData.CENTER.latitude, RichBenchmarkData.CENTER.latitude},
+                new double[]{RichBenchmarkData.CENTER.longitude - SIZE,
+                        RichBenchmarkData.CENTER.longitude + SIZE}, null)
+                .strokeWidth(4)
+                .build();
+        layer.addShape(line);
+
+        // 10 pixels below the line, 8 from the edge of its stroke
+        Point below = new Point(CENTER_X, CENTER_Y + 10);
+        assertNull(layer.pick(below, 6));
+        assertSame(line, layer.pick(below, 9));
+        assertNull(layer.pick(new Point(CENTER_X + 100, CENTER_Y), 20)); // 42 pixels past its end
+    }
+
+    @Test
+    public void picksThroughTheHolesOfPolygons() {
+        RichShape below = square(0, SIZE, 0);
+        RichShape ring = new RichPolygonOptions(squareLatitudes(0, SIZE * 2),
+                squareLongitudes(0, SIZE * 2), null)
+                .addHole(squareLatitudes(0, SIZE), squareLongitudes(0, SIZE))
+                .zIndex(1)
+                .build();
+        layer.addShape(below);
+        layer.addShape(ring);
+
+        assertSame(below, layer.pick(RichBenchmarkData.CENTER, 0));
+        assertSame(ring, layer.pick(new LatLng(RichBenchmarkData.CENTER.latitude,
+                RichBenchmarkData.CENTER.longitude + SIZE * 1.5), 0));
+
+        layer.removeShape(below);
+        assertNull(layer.pick(RichBenchmarkData.CENTER, 0));
+    }
+
+    @Test
+    public void picksAPointOfAPaddedMap() {
+        // The padding moves the target 100 pixels down from the center of the view
+        camera.paddingTop = 200;
+        RichShape shape = square(0, SIZE / 10, 0);
+        layer.addShape(shape);
+
+        assertSame(shape, layer.pick(new Point(CENTER_X, CENTER_Y + 100), 1));
+        assertNull(layer.pick(new Point(CENTER_X, CENTER_Y), 1));
+    }
+
+    /**
+     * Square of side 2 * halfSide degrees around the center, moved offset degrees east.
+     */
+    private static RichShape square(final double offset, final double halfSide,
+                                    final int zIndex) {
+        return new RichPolygonOptions(squareLatitudes(0, halfSide),
+                squareLongitudes(offset, halfSide), null)
+                .zIndex(zIndex)
+                .build();
+    }
+
+    private static double[] squareLatitudes(final double offset, final double halfSide) {
+        double latitude = RichBenchmarkData.CENTER.latitude + offset;
+        return new double[]{latitude - halfSide, latitude - halfSide,
+                latitude + halfSide, latitude + halfSide};
+    }
+
+    private static double[] squareLongitudes(final double offset, final double halfSide) {
+        double longitude = RichBenchmarkData.CENTER.longitude + offset;
+        return new double[]{longitude - halfSide, longitude + halfSide,
+                longitude + halfSide, longitude - halfSide};
+    }
+}
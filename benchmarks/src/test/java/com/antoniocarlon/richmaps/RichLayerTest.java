@@ -0,0 +1,208 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Looper;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.BitmapDescriptor;
+import com.google.android.gms.maps.model.BitmapDescriptorFactory;
+import com.google.android.gms.maps.model.GroundOverlayOptions;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Frames rendered by an asynchronous RichLayer and handed to the map.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class RichLayerTest {
+    private final List<Runnable> tasks = new ArrayList<>();
+    private final List<Bitmap> rendered = new ArrayList<>(); // Bitmaps of the frames
+    private MockedStatic<BitmapDescriptorFactory> descriptors;
+    private GoogleMap map;
+    private RichLayer layer;
+
+    @Before
+    public void setUp() {
+        // The map is not initialized, so the overlay images are stubbed
+        descriptors = Mockito.mockStatic(BitmapDescriptorFactory.class);
+        descriptors.when(new MockedStatic.Verification() {
+            @Override
+            public void apply() {
+                BitmapDescriptorFactory.fromBitmap(any(Bitmap.class));
+            }
+        }).thenAnswer(new Answer<BitmapDescriptor>() {
+            @Override
+            public BitmapDescriptor answer(final InvocationOnMock invocation) {
+                rendered.add((Bitmap) invocation.getArgument(0));
+                return mock(BitmapDescriptor.class);
+            }
+        });
+
+        map = RichBenchmarkData.map(new RichBenchmarkData.Camera());
+        // The renders are run by the test, in between the messages of the main thread
+        layer = new RichLayer.Builder(RichBenchmarkData.view(), map)
+                .executor(new Executor() {
+                    @Override
+                    public void execute(final Runnable task) {
+                        tasks.add(task);
+                    }
+                })
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        layer.release();
+        descriptors.close();
+    }
+
+    @Test
+    public void showsTheFrameRenderedForAStaleRequest() {
+        addLine(0);
+        layer.refresh();
+        runTasks();
+        // The camera moves again before the frame is shown, so it's dropped
+        layer.refresh();
+        shadowOf(Looper.getMainLooper()).idle();
+        verify(map, never()).addGroundOverlay(any(GroundOverlayOptions.class));
+
+        // Nothing changed, but the overlay has not shown the frame yet
+        runTasks();
+        shadowOf(Looper.getMainLooper()).idle();
+        verify(map, times(1)).addGroundOverlay(any(GroundOverlayOptions.class));
+        assertEquals(1, rendered.size());
+    }
+
+    @Test
+    public void drawsTheChangesIntoAnotherBitmap() {
+        addLine(0);
+        layer.refresh();
+        runTasks();
+        shadowOf(Looper.getMainLooper()).idle();
+        Bitmap shown = rendered.get(0);
+        Bitmap copy = shown.copy(shown.getConfig(), false);
+
+        addLine(0.002);
+        layer.refresh();
+        runTasks();
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertEquals(2, rendered.size());
+        assertNotSame(shown, rendered.get(1));
+        assertTrue(copy.sameAs(shown));
+        assertFalse(copy.sameAs(rendered.get(1)));
+    }
+
+    @Test
+    public void drawsARemovedBatchInASingleFrame() {
+        List<RichShape> batch = addLines(1000);
+        refreshAndShow();
+
+        layer.removeShapes(batch);
+        refreshAndShow();
+        assertEquals(2, rendered.size());
+
+        // Nothing is left to draw for the next refresh
+        refreshAndShow();
+        assertEquals(2, rendered.size());
+    }
+
+    @Test
+    public void drawsAReplacementInASingleFrame() {
+        addLines(1000);
+        refreshAndShow();
+
+        List<RichShape> replacement = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            replacement.add(line(i * 0.00005));
+        }
+        layer.replaceAll(replacement);
+        refreshAndShow();
+        assertEquals(2, rendered.size());
+
+        refreshAndShow();
+        assertEquals(2, rendered.size());
+    }
+
+    private List<RichShape> addLines(final int count) {
+        List<RichShape> lines = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            lines.add(line(-i * 0.00005));
+        }
+        layer.addShapes(lines);
+        return lines;
+    }
+
+    private void refreshAndShow() {
+        layer.refresh();
+        runTasks();
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+
+    private void addLine(final double offset) {
+        layer.addShape(line(offset));
+    }
+
+    /**
+     * Short line near the center, so only a small area of the frame changes.
+     */
+    private static RichShape line(final double offset) {
+        double latitude = RichBenchmarkData.CENTER.latitude + offset;
+        double longitude = RichBenchmarkData.CENTER.longitude + offset;
+        return new RichPolylineOptions(new double[]{latitude, latitude + 0.001},
+                new double[]{longitude, longitude + 0.001}, null)
+                .strokeColor(Color.RED)
+                .strokeWidth(4)
+                .build();
+    }
+
+    private void runTasks() {
+        while (!tasks.isEmpty()) {
+            tasks.remove(0).run();
+        }
+    }
+}
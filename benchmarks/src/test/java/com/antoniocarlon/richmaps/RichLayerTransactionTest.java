@@ -0,0 +1,151 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.Tile;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Batches of shapes removed or replaced in a single transaction.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class RichLayerTransactionTest {
+    private static final int SHAPES = 2000;
+    private static final int TILE_SIZE = 256;
+    // LatLng wraps a longitude of 180 to -180
+    private static final LatLngBounds WORLD = new LatLngBounds(new LatLng(-85, -180),
+            new LatLng(85, 179.99));
+
+    private final Random random = new Random(42);
+    private RichLayer layer;
+    private RichTileProvider provider;
+
+    @Before
+    public void setUp() {
+        layer = new RichLayer.Builder(RichBenchmarkData.view(),
+                RichBenchmarkData.map(new RichBenchmarkData.Camera())).build();
+        provider = new RichTileProvider(layer, TILE_SIZE, Bitmap.Config.ARGB_8888);
+    }
+
+    @Test
+    public void removesABatchOfShapes() {
+        List<RichShape> shapes = randomShapes(SHAPES);
+        layer.addShapes(shapes);
+        Tile before = provider.getTile(0, 0, 0);
+
+        // Most of them, so the index is packed again instead of removing one by one
+        List<RichShape> removed = new ArrayList<>();
+        List<RichShape> remaining = new ArrayList<>();
+        for (int i = 0; i < SHAPES; i++) {
+            (i % 4 == 0 ? remaining : removed).add(shapes.get(i));
+        }
+        long version = layer.getVersion();
+        layer.removeShapes(removed);
+
+        assertEquals(remaining, layer.getShapes());
+        assertEquals(new HashSet<>(remaining), new HashSet<>(layer.shapesIn(WORLD)));
+        for (RichShape shape : removed) {
+            assertNull(shape.layer);
+        }
+        assertRedrawnOnce(version, before);
+    }
+
+    @Test
+    public void replacesAllTheShapes() {
+        List<RichShape> shapes = randomShapes(SHAPES);
+        layer.addShapes(shapes);
+        Tile before = provider.getTile(0, 0, 0);
+
+        // Some shapes are kept, and they are drawn in the order of the new ones
+        List<RichShape> replacement = randomShapes(SHAPES / 2);
+        List<RichShape> kept = shapes.subList(0, SHAPES / 4);
+        replacement.addAll(kept);
+        long version = layer.getVersion();
+        layer.replaceAll(replacement);
+
+        assertEquals(replacement, layer.getShapes());
+        assertEquals(new HashSet<>(replacement), new HashSet<>(layer.shapesIn(WORLD)));
+        for (RichShape shape : shapes) {
+            if (kept.contains(shape)) {
+                assertSame(layer, shape.layer);
+            } else {
+                assertNull(shape.layer);
+            }
+        }
+        assertRedrawnOnce(version, before);
+    }
+
+    @Test
+    public void clearsTheLayer() {
+        List<RichShape> shapes = randomShapes(SHAPES);
+        layer.addShapes(shapes);
+        layer.clear();
+
+        assertTrue(layer.getShapes().isEmpty());
+        assertTrue(layer.shapesIn(WORLD).isEmpty());
+        assertNull(shapes.get(0).layer);
+
+        // The shapes can be added again
+        layer.addShapes(shapes);
+        assertEquals(shapes, layer.getShapes());
+    }
+
+    /**
+     * Checks that the transaction changed the version once, so the tiles are rendered once.
+     */
+    private void assertRedrawnOnce(final long version, final Tile before) {
+        assertEquals(version + 1, layer.getVersion());
+        Tile after = provider.getTile(0, 0, 0);
+        assertNotSame(before, after);
+        assertSame(after, provider.getTile(0, 0, 0));
+    }
+
+    private List<RichShape> randomShapes(final int count) {
+        List<RichShape> shapes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            double latitude = -80 + random.nextDouble() * 160;
+            double longitude = -170 + random.nextDouble() * 340;
+            shapes.add(new RichPolylineOptions(
+                    new double[]{latitude, latitude + random.nextDouble() * 5},
+                    new double[]{longitude, longitude + random.nextDouble() * 5}, null).build());
+        }
+        return shapes;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.gms.maps.model.CameraPosition;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Bounds of the frames drawn by a layer, which must not wrap around the world.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class RichMercatorProjectionTest {
+    private static final double DELTA = 1e-6;
+
+    @Test
+    public void frameWiderThanTheWorldCoversIt() {
+        // At zoom 0 the world is 256 pixels wide
+        LatLngBounds bounds = frame(new LatLng(0, 0), 0, 1024).getVisibleBounds();
+
+        assertEquals(-180, bounds.southwest.longitude, DELTA);
+        assertEquals(180, bounds.northeast.longitude, DELTA);
+        assertEquals(-RichUtils.MAX_LATITUDE, bounds.southwest.latitude, DELTA);
+        assertEquals(RichUtils.MAX_LATITUDE, bounds.northeast.latitude, DELTA);
+    }
+
+    @Test
+    public void frameAcrossTheAntimeridianStopsAtIt() {
+        LatLngBounds bounds = frame(new LatLng(0, 179), 4, 1024).getVisibleBounds();
+
+        assertTrue(bounds.southwest.longitude < 179);
+        assertEquals(180, bounds.northeast.longitude, DELTA);
+    }
+
+    @Test
+    public void overscannedStripeAcrossTheAntimeridianStopsAtIt() {
+        RichMercatorProjection projection = frame(new LatLng(0, -179), 4, 1024);
+        LatLngBounds bounds = projection.getBounds(-64, 0, 1024 + 64, 16);
+
+        assertEquals(-180, bounds.southwest.longitude, DELTA);
+        assertTrue(bounds.northeast.longitude > -179);
+    }
+
+    private static RichMercatorProjection frame(final LatLng target, final float zoom,
+                                                final int size) {
+        return RichMercatorProjection.fromCamera(new CameraPosition(target, zoom, 0, 0),
+                size, size, 1);
+    }
+}
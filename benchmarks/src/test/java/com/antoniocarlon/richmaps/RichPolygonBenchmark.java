@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.Paint;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of RichPolygon.drawFill and of the whole polygon (fill, holes and stroke).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RichPolygonBenchmark {
+    private static final int HOLES = 4;
+
+    @Param({"1000", "100000", "1000000"})
+    int vertices;
+
+    private RichPolygon polygon;
+    private Bitmap bitmap;
+    private RichMercatorProjection projection;
+
+    @Setup
+    public void setUp() {
+        LatLng center = RichBenchmarkData.CENTER;
+        double[][] outline = RichBenchmarkData.ring(vertices, center, RichBenchmarkData.SPAN, 1);
+        RichPolygonOptions options = new RichPolygonOptions(outline[0], outline[1],
+                RichBenchmarkData.colors(vertices, 100))
+                .style(Paint.Style.FILL_AND_STROKE)
+                .fillColor(Color.argb(128, 0, 0, 255))
+                .strokeWidth(2);
+        for (int i = 0; i < HOLES; i++) {
+            double angle = 2 * Math.PI * i / HOLES;
+            LatLng holeCenter = new LatLng(
+                    center.latitude + RichBenchmarkData.SPAN / 3 * Math.sin(angle),
+                    center.longitude + RichBenchmarkData.SPAN / 3 * Math.cos(angle));
+            double[][] hole = RichBenchmarkData.ring(Math.max(3, vertices / 100), holeCenter,
+                    RichBenchmarkData.SPAN / 8, i);
+            options.addHole(hole[0], hole[1]);
+        }
+        polygon = options.build();
+
+        bitmap = Bitmap.createBitmap(RichBenchmarkData.WIDTH, RichBenchmarkData.HEIGHT,
+                Bitmap.Config.ARGB_8888);
+        projection = RichBenchmarkData.projection(
+                RichBenchmarkData.camera(RichBenchmarkData.CENTER, 0));
+    }
+
+    @Benchmark
+    public Bitmap drawFill() {
+        bitmap.eraseColor(Color.TRANSPARENT);
+        polygon.drawFill(RichCanvasRenderer.obtain(bitmap), projection, polygon.vertices);
+        return bitmap;
+    }
+
+    @Benchmark
+    public Bitmap draw() {
+        bitmap.eraseColor(Color.TRANSPARENT);
+        polygon.doDraw(bitmap, projection);
+        return bitmap;
+    }
+}
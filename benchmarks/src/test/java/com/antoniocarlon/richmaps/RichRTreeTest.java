@@ -0,0 +1,277 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Searches of RichRTree, and of the layer built on it, compared with a brute-force scan.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class RichRTreeTest {
+    private static final int ITEMS = 2000; // Enough for several levels of splits
+    private static final int SEARCHES = 200;
+
+    private final Random random = new Random(42);
+
+    @Test
+    public void findsInsertedItems() {
+        RichRTree<Integer> tree = new RichRTree<>();
+        double[][] rectangles = randomRectangles(ITEMS);
+        for (int i = 0; i < ITEMS; i++) {
+            insert(tree, i, rectangles[i]);
+        }
+
+        assertEquals(ITEMS, tree.size());
+        assertSearchesMatch(tree, rectangles);
+    }
+
+    @Test
+    public void splitsNodesWithClusteredItems() {
+        // Items in two distant groups force the quadratic split to pick seeds in both
+        RichRTree<Integer> tree = new RichRTree<>();
+        double[][] rectangles = new double[ITEMS][];
+        for (int i = 0; i < ITEMS; i++) {
+            double offset = i % 2 == 0 ? -150 : 150;
+            double x = offset + random.nextDouble() * 10;
+            double y = random.nextDouble() * 10;
+            rectangles[i] = new double[]{x, y, x + 0.1, y + 0.1};
+            insert(tree, i, rectangles[i]);
+        }
+
+        assertSearchesMatch(tree, rectangles);
+        List<Integer> left = new ArrayList<>();
+        tree.search(-180, -90, 0, 90, left);
+        assertEquals(ITEMS / 2, left.size());
+        for (Integer item : left) {
+            assertEquals(0, item % 2);
+        }
+    }
+
+    @Test
+    public void removesItems() {
+        RichRTree<Integer> tree = new RichRTree<>();
+        double[][] rectangles = randomRectangles(ITEMS);
+        for (int i = 0; i < ITEMS; i++) {
+            insert(tree, i, rectangles[i]);
+        }
+
+        // Removing most of the items condenses the tree and reinserts the orphans
+        for (int i = 0; i < ITEMS; i++) {
+            if (i % 5 != 0) {
+                assertTrue(tree.remove(i));
+                rectangles[i] = null;
+            }
+        }
+
+        assertFalse(tree.remove(1));
+        assertFalse(tree.contains(1));
+        assertTrue(tree.contains(5));
+        assertEquals(ITEMS / 5, tree.size());
+        assertSearchesMatch(tree, rectangles);
+    }
+
+    @Test
+    public void movesItems() {
+        RichRTree<Integer> tree = new RichRTree<>();
+        double[][] rectangles = randomRectangles(ITEMS);
+        for (int i = 0; i < ITEMS; i++) {
+            insert(tree, i, rectangles[i]);
+        }
+
+        double[][] moved = randomRectangles(ITEMS / 2);
+        for (int i = 0; i < moved.length; i++) {
+            rectangles[i] = moved[i];
+            insert(tree, i, rectangles[i]);
+        }
+
+        assertEquals(ITEMS, tree.size());
+        assertSearchesMatch(tree, rectangles);
+    }
+
+    @Test
+    public void bulkLoadsItems() {
+        RichRTree<Integer> tree = new RichRTree<>();
+        double[][] rectangles = randomRectangles(ITEMS);
+        for (int i = 0; i < ITEMS; i++) {
+            tree.put(i, rectangles[i][0], rectangles[i][1], rectangles[i][2], rectangles[i][3]);
+        }
+        tree.rebuild();
+
+        assertEquals(ITEMS, tree.size());
+        assertSearchesMatch(tree, rectangles);
+
+        // The packed tree keeps working with single insertions and removals
+        double[][] more = randomRectangles(ITEMS / 4);
+        double[][] all = new double[ITEMS + more.length][];
+        System.arraycopy(rectangles, 0, all, 0, ITEMS);
+        for (int i = 0; i < more.length; i++) {
+            all[ITEMS + i] = more[i];
+            insert(tree, ITEMS + i, more[i]);
+        }
+        for (int i = 0; i < ITEMS; i += 3) {
+            tree.remove(i);
+            all[i] = null;
+        }
+        assertSearchesMatch(tree, all);
+    }
+
+    @Test
+    public void removesLargeBatches() {
+        RichRTree<Integer> tree = new RichRTree<>();
+        double[][] rectangles = randomRectangles(ITEMS);
+        for (int i = 0; i < ITEMS; i++) {
+            insert(tree, i, rectangles[i]);
+        }
+
+        // A few items are removed one by one, most of them by rebuilding the tree
+        List<Integer> few = new ArrayList<>();
+        for (int i = 0; i < ITEMS / 10; i++) {
+            few.add(i);
+            rectangles[i] = null;
+        }
+        tree.removeAll(few);
+        assertSearchesMatch(tree, rectangles);
+
+        List<Integer> most = new ArrayList<>();
+        for (int i = ITEMS / 10; i < ITEMS; i += 2) {
+            most.add(i);
+            rectangles[i] = null;
+        }
+        tree.removeAll(most);
+        assertEquals(ITEMS - few.size() - most.size(), tree.size());
+        assertSearchesMatch(tree, rectangles);
+    }
+
+    @Test
+    public void emptiesTheTree() {
+        RichRTree<Integer> tree = new RichRTree<>();
+        double[][] rectangles = randomRectangles(ITEMS);
+        for (int i = 0; i < ITEMS; i++) {
+            insert(tree, i, rectangles[i]);
+        }
+        for (int i = 0; i < ITEMS; i++) {
+            tree.remove(i);
+        }
+
+        assertEquals(0, tree.size());
+        List<Integer> found = new ArrayList<>();
+        tree.search(-180, -90, 180, 90, found);
+        assertTrue(found.isEmpty());
+
+        insert(tree, 0, rectangles[0]);
+        tree.search(-180, -90, 180, 90, found);
+        assertEquals(1, found.size());
+    }
+
+    @Test
+    public void findsTheShapesOfTheLayer() {
+        RichLayer layer = new RichLayer.Builder(RichBenchmarkData.view(),
+                RichBenchmarkData.map(new RichBenchmarkData.Camera())).build();
+        List<RichShape> shapes = new ArrayList<>();
+        for (int i = 0; i < ITEMS; i++) {
+            double latitude = -80 + random.nextDouble() * 160;
+            double longitude = -170 + random.nextDouble() * 340;
+            shapes.add(new RichPolylineOptions(
+                    new double[]{latitude, latitude + random.nextDouble() * 5},
+                    new double[]{longitude, longitude + random.nextDouble() * 5}, null).build());
+        }
+        layer.addShapes(shapes);
+        layer.removeShapes(shapes.subList(0, ITEMS / 4));
+        List<RichShape> remaining = shapes.subList(ITEMS / 4, ITEMS);
+
+        for (int i = 0; i < SEARCHES; i++) {
+            double[] search = randomRectangle(40);
+            LatLngBounds bounds = new LatLngBounds(new LatLng(search[1], search[0]),
+                    new LatLng(search[3], search[2]));
+
+            Set<RichShape> expected = new HashSet<>();
+            for (RichShape shape : remaining) {
+                if (RichUtils.intersectsRectangle(search[0], search[1], search[2], search[3],
+                        shape.minLongitude, shape.minLatitude,
+                        shape.maxLongitude, shape.maxLatitude)) {
+                    expected.add(shape);
+                }
+            }
+            List<RichShape> found = layer.shapesIn(bounds);
+            assertEquals(expected.size(), found.size());
+            assertEquals(expected, new HashSet<>(found));
+        }
+    }
+
+    private static void insert(final RichRTree<Integer> tree, final int item,
+                               final double[] rectangle) {
+        tree.insert(item, rectangle[0], rectangle[1], rectangle[2], rectangle[3]);
+    }
+
+    private void assertSearchesMatch(final RichRTree<Integer> tree,
+                                     final double[][] rectangles) {
+        for (int i = 0; i < SEARCHES; i++) {
+            double[] search = randomRectangle(i % 2 == 0 ? 20 : 120);
+
+            Set<Integer> expected = new HashSet<>();
+            for (int j = 0; j < rectangles.length; j++) {
+                double[] rectangle = rectangles[j];
+                if (rectangle != null && RichUtils.intersectsRectangle(
+                        search[0], search[1], search[2], search[3],
+                        rectangle[0], rectangle[1], rectangle[2], rectangle[3])) {
+                    expected.add(j);
+                }
+            }
+            List<Integer> found = new ArrayList<>();
+            tree.search(search[0], search[1], search[2], search[3], found);
+            assertEquals(expected.size(), found.size()); // No duplicates
+            assertEquals(expected, new HashSet<>(found));
+        }
+    }
+
+    private double[][] randomRectangles(final int count) {
+        double[][] rectangles = new double[count][];
+        for (int i = 0; i < count; i++) {
+            rectangles[i] = randomRectangle(2);
+        }
+        return rectangles;
+    }
+
+    /**
+     * Returns {minX, minY, maxX, maxY} inside the world, with sides up to maxSize degrees.
+     */
+    private double[] randomRectangle(final double maxSize) {
+        double width = random.nextDouble() * maxSize;
+        double height = random.nextDouble() * maxSize / 2;
+        double minX = -180 + random.nextDouble() * (360 - width);
+        double minY = -85 + random.nextDouble() * (170 - height);
+        return new double[]{minX, minY, minX + width, minY + height};
+    }
+}
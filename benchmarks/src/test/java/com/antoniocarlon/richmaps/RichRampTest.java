@@ -0,0 +1,102 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.antoniocarlon.richmaps;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import android.graphics.Color;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Values and colors of the stops of a RichRamp, and between them.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class RichRampTest {
+    @Test
+    public void interpolatesTheValuesBetweenTheStops() {
+        RichRamp ramp = RichRamp.byZoom()
+                .value(10, 1)
+                .value(14, 5)
+                .value(16, 3)
+                .build();
+
+        double[] out = new double[5];
+        ramp.evaluate(new double[]{10, 11, 14, 15, 15.5}, 5, out);
+        assertArrayEquals(new double[]{1, 2, 5, 4, 3.5}, out, 1e-9);
+        assertEquals(5, ramp.getMaxValue(), 0);
+    }
+
+    @Test
+    public void clampsTheInputsOutOfTheStops() {
+        RichRamp ramp = RichRamp.byAttribute("speed")
+                .value(0, 2)
+                .value(100, 8)
+                .build();
+
+        double[] out = new double[3];
+        ramp.evaluate(new double[]{-50, 250, Double.NaN}, 3, out);
+        // Missing inputs get the first stop
+        assertArrayEquals(new double[]{2, 8, 2}, out, 0);
+    }
+
+    @Test
+    public void interpolatesEachChannelOfTheColors() {
+        RichRamp ramp = RichRamp.byAttribute("speed")
+                .color(0, Color.argb(0, 0, 100, 255))
+                .color(10, Color.argb(200, 255, 0, 55))
+                .build();
+
+        int[] out = new int[3];
+        ramp.evaluate(new double[]{0, 5, 20}, 3, out);
+        assertEquals(Color.argb(0, 0, 100, 255), out[0]);
+        assertEquals(Color.argb(100, 128, 50, 155), out[1]);
+        assertEquals(Color.argb(200, 255, 0, 55), out[2]);
+    }
+
+    @Test
+    public void evaluatesASingleStop() {
+        RichRamp ramp = RichRamp.byZoom().color(12, Color.RED).build();
+
+        int[] out = new int[3];
+        ramp.evaluate(new double[]{0, 12, 20}, 3, out);
+        assertEquals(Color.RED, out[0]);
+        assertEquals(Color.RED, out[1]);
+        assertEquals(Color.RED, out[2]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDecreasingInputs() {
+        RichRamp.byZoom().value(14, 1).value(10, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMixingColorsAndValues() {
+        RichRamp.byZoom().value(10, 1).color(14, Color.RED);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsARampWithoutStops() {
+        RichRamp.byAttribute("speed").build();
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the bounds of a shape, used to cull shapes on every frame, and of
+ * building a shape from primitive arrays.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RichShapeBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    int vertices;
+
+    private double[][] walk;
+    private int[] colors;
+    private RichPolyline polyline;
+    private LatLngBounds visibleBounds;
+
+    @Setup
+    public void setUp() {
+        walk = RichBenchmarkData.randomWalk(vertices, 1);
+        colors = RichBenchmarkData.colors(vertices, 100);
+        polyline = new RichPolylineOptions(walk[0], walk[1], colors).build();
+        visibleBounds = RichBenchmarkData.projection(
+                RichBenchmarkData.camera(RichBenchmarkData.CENTER, 0)).getVisibleBounds();
+    }
+
+    @Benchmark
+    public LatLngBounds getBounds() {
+        return polyline.getBounds();
+    }
+
+    @Benchmark
+    public boolean boundsIntersects() {
+        return polyline.boundsIntersects(visibleBounds);
+    }
+
+    @Benchmark
+    public RichPolyline build() {
+        return new RichPolylineOptions(walk[0], walk[1], colors).build();
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Color;
+import android.graphics.Paint;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Shapes written by RichShapeFile and read back.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class RichShapeFileTest {
+    private static final double QUANTUM = 1e-7; // In degrees
+
+    @Test
+    public void keepsPointsWithoutPosition() throws IOException {
+        RichPolyline polyline = new RichPolylineOptions(
+                new double[]{40, Double.NaN, Double.NaN, 41, 42, Double.NaN},
+                new double[]{-3, Double.NaN, Double.NaN, -4, -5, Double.NaN}, null)
+                .strokeColor(Color.RED)
+                .build();
+
+        RichShape read = roundTrip(polyline).read(0);
+
+        assertSameVertices(polyline.vertices, read.vertices);
+    }
+
+    @Test
+    public void keepsColorRuns() throws IOException {
+        int[] colors = new int[]{Color.RED, Color.RED, Color.RED, Color.GREEN, Color.BLUE,
+                Color.BLUE};
+        RichPolyline polyline = new RichPolylineOptions(new double[]{0, 1, 2, 3, 4, 5},
+                new double[]{0, 1, 2, 3, 4, 5}, colors).build();
+
+        RichShape read = roundTrip(polyline).read(0);
+
+        assertSameVertices(polyline.vertices, read.vertices);
+    }
+
+    @Test
+    public void keepsPolygonsWithHoles() throws IOException {
+        RichPolygon polygon = new RichPolygonOptions(new double[]{0, 0, 10, 10},
+                new double[]{0, 10, 10, 0}, null)
+                .addHole(new double[]{2, 2, 4}, new double[]{2, 4, 4})
+                .addHole(new double[]{6, 6, 8}, new double[]{6, 8, 8})
+                .strokeColor(Color.BLUE)
+                .fillColor(Color.YELLOW)
+                .style(Paint.Style.FILL_AND_STROKE)
+                .zIndex(3)
+                .build();
+
+        RichPolygon read = (RichPolygon) roundTrip(polygon).read(0);
+
+        assertEquals(Integer.valueOf(Color.YELLOW), read.fillColor);
+        assertEquals(RichPaint.Style.FILL_AND_STROKE, read.style);
+        assertEquals(3, read.getZIndex());
+        assertSameVertices(polygon.vertices, read.vertices);
+        assertEquals(2, read.holes.size());
+        for (int i = 0; i < read.holes.size(); i++) {
+            assertSameVertices(polygon.holes.get(i), read.holes.get(i));
+            assertEquals(Color.BLUE, read.holes.get(i).getColor(0));
+        }
+    }
+
+    @Test
+    public void keepsLongitudesAcrossTheAntimeridian() throws IOException {
+        // The deltas between consecutive vertices are close to the whole range of longitudes
+        RichPolyline polyline = new RichPolylineOptions(
+                new double[]{85.0511287, -85.0511287, 85.0511287, 0},
+                new double[]{179.9999999, -179.9999999, 179.9999999, -180}, null).build();
+
+        RichShape read = roundTrip(polyline).read(0);
+
+        assertSameVertices(polyline.vertices, read.vertices);
+    }
+
+    @Test
+    public void loadsOnlyTheShapesInsideTheBounds() throws IOException {
+        RichShapeFile file = roundTrip(Arrays.asList(
+                line(40, -4, 41, -3),
+                line(-34, 150, -33, 151),
+                new RichPolylineOptions(new ArrayList<RichPoint>()).build(), // No position
+                line(40.5, -3.5, 50, 10)));
+        RichLayer layer = new RichLayer.Builder(RichBenchmarkData.view(),
+                RichBenchmarkData.map(new RichBenchmarkData.Camera())).build();
+
+        // The bounds contain (0, 0), where shapes without position used to be indexed
+        LatLngBounds bounds = new LatLngBounds(new LatLng(-10, -10), new LatLng(40.7, 1));
+        assertEquals(2, file.load(layer, bounds));
+        assertEquals(0, file.load(layer, bounds));
+        assertEquals(1, file.load(layer, new LatLngBounds(new LatLng(-90, -180),
+                new LatLng(90, 179))));
+        assertEquals(1, file.loadAll(layer));
+    }
+
+    private static RichPolyline line(final double fromLatitude, final double fromLongitude,
+                                     final double toLatitude, final double toLongitude) {
+        return new RichPolylineOptions(new double[]{fromLatitude, toLatitude},
+                new double[]{fromLongitude, toLongitude}, null).build();
+    }
+
+    private static RichShapeFile roundTrip(final RichShape shape) throws IOException {
+        return roundTrip(Arrays.asList(shape));
+    }
+
+    private static RichShapeFile roundTrip(final Collection<? extends RichShape> shapes)
+            throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        RichShapeFile.write(shapes, Channels.newChannel(output));
+        RichShapeFile file = RichShapeFile.wrap(ByteBuffer.wrap(output.toByteArray()));
+        assertEquals(shapes.size(), file.getShapeCount());
+        return file;
+    }
+
+    private static void assertSameVertices(final RichVertices expected,
+                                           final RichVertices actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.hasPosition(i), actual.hasPosition(i));
+            if (expected.hasPosition(i)) {
+                assertEquals(expected.getLatitude(i), actual.getLatitude(i), QUANTUM);
+                assertEquals(expected.getLongitude(i), actual.getLongitude(i), QUANTUM);
+            } else {
+                assertTrue(Double.isNaN(actual.getLatitude(i)));
+            }
+            assertEquals(expected.getColor(i), actual.getColor(i));
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * GeoJSON and encoded polylines parsed by RichShapeLoader.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class RichShapeLoaderTest {
+    private static final double DELTA = 1e-9;
+    private static final LatLngBounds WORLD = new LatLngBounds(new LatLng(-90, -180),
+            new LatLng(90, 179.999));
+
+    private RichLayer layer;
+
+    @Before
+    public void setUp() {
+        layer = new RichLayer.Builder(RichBenchmarkData.view(),
+                RichBenchmarkData.map(new RichBenchmarkData.Camera())).build();
+    }
+
+    @Test
+    public void loadsFeatureCollections() throws IOException {
+        final List<Object> names = new ArrayList<>();
+        RichShapeLoader loader = new RichShapeLoader(layer, new RichShapeLoader.Style() {
+            @Override
+            public boolean polyline(final Map<String, Object> properties,
+                                    final RichPolylineOptions options) {
+                names.add(properties.get("name"));
+                return true;
+            }
+
+            @Override
+            public boolean polygon(final Map<String, Object> properties,
+                                   final RichPolygonOptions options) {
+                names.add(properties.get("name"));
+                return true;
+            }
+        });
+
+        int count = loader.loadGeoJson(new StringReader("{\"type\": \"FeatureCollection\","
+                + "\"features\": ["
+                + "{\"type\": \"Feature\", \"geometry\": {\"type\": \"LineString\","
+                + "\"coordinates\": [[-3, 40], [-4, 41, 650]]}, \"properties\": {\"name\": \"a\"}},"
+                + "{\"type\": \"Feature\", \"properties\": {\"name\": \"b\"}, \"geometry\": {"
+                + "\"type\": \"Polygon\", \"coordinates\": [[[0, 0], [10, 0], [10, 10], [0, 0]],"
+                + "[[2, 2], [4, 2], [4, 4], [2, 2]]]}},"
+                + "{\"type\": \"Feature\", \"geometry\": {\"type\": \"Point\","
+                + "\"coordinates\": [1, 1]}, \"properties\": null}]}"));
+
+        assertEquals(2, count);
+        assertEquals(2, names.size());
+        assertEquals("a", names.get(0));
+        assertEquals("b", names.get(1));
+        List<RichShape> shapes = layer.shapesIn(WORLD);
+        assertPositions(shapes.get(0).vertices, 40, -3, 41, -4);
+        RichPolygon polygon = (RichPolygon) shapes.get(1);
+        // The repeated closing positions are dropped
+        assertPositions(polygon.vertices, 0, 0, 0, 10, 10, 10);
+        assertEquals(1, polygon.holes.size());
+        assertPositions(polygon.holes.get(0), 2, 2, 2, 4, 4, 4);
+    }
+
+    @Test
+    public void loadsGeometriesWithTheTypeAfterTheCoordinates() throws IOException {
+        int count = new RichShapeLoader(layer).loadGeoJson(new StringReader("{"
+                + "\"type\": \"GeometryCollection\", \"geometries\": ["
+                + "{\"coordinates\": [[[[0, 0], [1, 0], [1, 1]], [[0.2, 0.2], [0.4, 0.2],"
+                + "[0.4, 0.4]]], [[[5, 5], [6, 5], [6, 6]]]], \"type\": \"MultiPolygon\"},"
+                + "{\"coordinates\": [[[7, 7], [8, 8]], [[9, 9], [10, 10]]],"
+                + "\"type\": \"MultiLineString\"},"
+                + "{\"coordinates\": [[20, 20], [21, 21]], \"type\": \"MultiPoint\"}]}"));
+
+        assertEquals(4, count);
+        List<RichShape> shapes = layer.shapesIn(WORLD);
+        RichPolygon first = (RichPolygon) shapes.get(0);
+        assertPositions(first.vertices, 0, 0, 0, 1, 1, 1);
+        assertEquals(1, first.holes.size());
+        RichPolygon second = (RichPolygon) shapes.get(1);
+        assertPositions(second.vertices, 5, 5, 5, 6, 6, 6);
+        assertEquals(0, second.holes.size());
+        assertTrue(shapes.get(2) instanceof RichPolyline);
+        assertPositions(shapes.get(3).vertices, 9, 9, 10, 10);
+    }
+
+    @Test
+    public void loadsEncodedPolylinesWithWhitespace() throws IOException {
+        // Example of the encoded polyline algorithm format, twice
+        String polylines = "  _p~iF~ps|U_ulLnnqC_mqNvxq`@\r\n\n\t_p~iF~ps|U _ulLnnqC\t_mqNvxq`@ ";
+
+        int count = new RichShapeLoader(layer).loadEncodedPolylines(new StringReader(polylines));
+
+        assertEquals(2, count);
+        for (RichShape shape : layer.shapesIn(WORLD)) {
+            assertPositions(shape.vertices, 38.5, -120.2, 40.7, -120.95, 43.252, -126.453);
+        }
+    }
+
+    @Test
+    public void leavesTheInputOpen() throws IOException {
+        ClosingInput geoJson = new ClosingInput("{\"type\": \"LineString\","
+                + "\"coordinates\": [[-3, 40], [-4, 41]]}");
+        ClosingInput encoded = new ClosingInput("_p~iF~ps|U_ulLnnqC");
+        RichShapeLoader loader = new RichShapeLoader(layer);
+
+        assertEquals(1, loader.loadGeoJson(geoJson));
+        assertEquals(1, loader.loadEncodedPolylines(encoded));
+        assertFalse(geoJson.closed);
+        assertFalse(encoded.closed);
+    }
+
+    private static void assertPositions(final RichVertices vertices,
+                                        final double... positions) {
+        assertEquals(positions.length / 2, vertices.size());
+        for (int i = 0; i < vertices.size(); i++) {
+            assertEquals(positions[i * 2], vertices.getLatitude(i), DELTA);
+            assertEquals(positions[i * 2 + 1], vertices.getLongitude(i), DELTA);
+        }
+    }
+
+    private static class ClosingInput extends ByteArrayInputStream {
+        boolean closed;
+
+        ClosingInput(final String content) {
+            super(content.getBytes(Charset.forName("UTF-8")));
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+    }
+}
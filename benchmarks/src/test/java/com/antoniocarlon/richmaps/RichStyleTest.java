@@ -0,0 +1,124 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.antoniocarlon.richmaps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import android.graphics.Color;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+
+/**
+ * Styles evaluated by RichStyle for the shapes from their attributes and the zoom level.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class RichStyleTest {
+    private final RichStyle style = new RichStyle.Builder()
+            .strokeColor(RichRamp.byAttribute("speed")
+                    .color(0, Color.BLUE)
+                    .color(100, Color.RED)
+                    .build())
+            .strokeWidth(RichRamp.byZoom()
+                    .value(10, 2)
+                    .value(14, 10)
+                    .build())
+            .build();
+
+    @Test
+    public void looksUpTheAttributesOfEachShape() {
+        RichShape slow = line();
+        slow.setAttribute("speed", 0);
+        RichShape fast = line();
+        fast.setAttribute("speed", 100);
+        fast.setAttribute("heading", 90);
+
+        style.apply(Arrays.asList(slow, fast), 12);
+        assertEquals(Integer.valueOf(Color.BLUE), slow.styled.strokeColor);
+        assertEquals(Integer.valueOf(Color.RED), fast.styled.strokeColor);
+        assertSame(slow.styled, style.resolve(slow, 12));
+    }
+
+    @Test
+    public void keepsTheOwnStyleOfShapesWithoutTheAttribute() {
+        RichShape shape = line();
+
+        RichStyle.Result result = style.resolve(shape, 12);
+        assertNull(result.strokeColor);
+        assertNull(result.fillColor); // The style has no fill ramp
+        // Zoom ramps don't need attributes
+        assertEquals(6, result.getStrokeWidth(4), 0);
+
+        RichStyle.Result colorOnly = new RichStyle.Builder()
+                .strokeColor(RichRamp.byAttribute("speed").color(0, Color.BLUE).build())
+                .build()
+                .resolve(shape, 12);
+        assertEquals(4, colorOnly.getStrokeWidth(4), 0);
+    }
+
+    @Test
+    public void interpolatesTheZoomAtTheStartOfEachBand() {
+        RichShape shape = line();
+
+        assertEquals(2, style.resolve(shape, 9).strokeWidth, 0);
+        assertEquals(4, style.resolve(shape, 11).strokeWidth, 0);
+        // Zoom 11.4 is in the band starting at 11
+        assertEquals(4, style.resolve(shape, 11.4).strokeWidth, 0);
+        assertEquals(5, style.resolve(shape, 11.5).strokeWidth, 0);
+        assertEquals(10, style.resolve(shape, 18).strokeWidth, 0);
+    }
+
+    @Test
+    public void evaluatesTheShapeAgainWhenItsAttributesChange() {
+        RichShape shape = line();
+        shape.setAttribute("speed", 0);
+        RichStyle.Result result = style.resolve(shape, 12);
+
+        shape.setAttribute("speed", 0); // Same value
+        assertSame(result, style.resolve(shape, 12));
+
+        shape.setAttribute("speed", 50);
+        RichStyle.Result changed = style.resolve(shape, 12);
+        assertNotSame(result, changed);
+        assertEquals(Integer.valueOf(Color.argb(255, 128, 0, 128)), changed.strokeColor);
+
+        // NaN removes the attribute
+        shape.setAttribute("speed", Double.NaN);
+        assertNull(style.resolve(shape, 12).strokeColor);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAValueRampForColors() {
+        new RichStyle.Builder().fillColor(RichRamp.byZoom().value(10, 1).build());
+    }
+
+    private static RichShape line() {
+        return new RichPolylineOptions(new double[]{0, 1}, new double[]{0, 1}, null)
+                .strokeColor(Color.GREEN)
+                .strokeWidth(4)
+                .build();
+    }
+}
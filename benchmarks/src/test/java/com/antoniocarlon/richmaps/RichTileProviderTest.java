@@ -0,0 +1,145 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.Tile;
+import com.google.android.gms.maps.model.TileProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tiles rendered by RichTileProvider, including the ones whose margin crosses the edges
+ * of the world.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class RichTileProviderTest {
+    private static final int TILE_SIZE = 256;
+
+    private RichLayer layer;
+    private RichTileProvider provider;
+
+    @Before
+    public void setUp() {
+        layer = new RichLayer.Builder(RichBenchmarkData.view(),
+                RichBenchmarkData.map(new RichBenchmarkData.Camera())).build();
+        provider = new RichTileProvider(layer, TILE_SIZE, Bitmap.Config.ARGB_8888);
+    }
+
+    @Test
+    public void tileBoundsStayInsideTheWorld() {
+        for (int zoom = 0; zoom <= 2; zoom++) {
+            int tiles = 1 << zoom;
+            for (int x = 0; x < tiles; x++) {
+                LatLngBounds bounds = RichMercatorProjection.forTile(x, 0, zoom, TILE_SIZE, 32)
+                        .getVisibleBounds();
+                assertTrue(bounds.southwest.longitude < bounds.northeast.longitude);
+                assertTrue(bounds.southwest.latitude < bounds.northeast.latitude);
+            }
+        }
+    }
+
+    @Test
+    public void rendersTheWorldTile() {
+        addLine(0, -90, 0, 90);
+
+        Bitmap tile = render(0, 0, 0);
+        assertEquals(Color.RED, tile.getPixel(TILE_SIZE / 2, TILE_SIZE / 2));
+    }
+
+    @Test
+    public void rendersTheTilesAtTheEdgesOfTheWorld() {
+        addLine(40, -179, 40, -120);
+        addLine(-40, 120, -40, 179);
+
+        assertRed(render(0, 0, 1), 0, 0, 1, 40, -150);
+        assertRed(render(1, 1, 1), 1, 1, 1, -40, 150);
+    }
+
+    @Test
+    public void drawsClustersCrossingTileEdgesFromAllTheirShapes() {
+        // At zoom 4 the edge between tiles 7 and 8 is at x = 2048 pixels, inside the
+        // cluster cell from 2000 to 2100 pixels
+        int zoom = 4;
+        double worldSize = TILE_SIZE << zoom;
+        RichLayer clustered = new RichLayer.Builder(RichBenchmarkData.view(),
+                RichBenchmarkData.map(new RichBenchmarkData.Camera()))
+                .levelOfDetail(4)
+                .clusterSize(100)
+                .build();
+        List<RichShape> cell = new ArrayList<>();
+        for (int x : new int[]{2005, 2030, 2060, 2095}) {
+            double latitude = RichUtils.toLatitude(1850 / worldSize);
+            double longitude = RichUtils.toLongitude(x / worldSize);
+            cell.add(new RichPolylineOptions(new double[]{latitude, latitude + 1e-4},
+                    new double[]{longitude, longitude + 1e-4}, null).build());
+        }
+        clustered.addShapes(cell);
+        RichTileProvider clusteredProvider = new RichTileProvider(clustered, TILE_SIZE,
+                Bitmap.Config.ARGB_8888);
+
+        for (int x = 7; x <= 8; x++) {
+            LatLngBounds bounds = clusteredProvider.getDrawnBounds(
+                    RichMercatorProjection.forTile(x, 7, zoom, TILE_SIZE, 0));
+            List<RichShape> shapes = clustered.shapesIn(bounds);
+            assertEquals(cell.size(), shapes.size());
+            assertTrue(shapes.containsAll(cell));
+        }
+    }
+
+    private void addLine(final double fromLatitude, final double fromLongitude,
+                         final double toLatitude, final double toLongitude) {
+        layer.addShape(new RichPolylineOptions(new double[]{fromLatitude, toLatitude},
+                new double[]{fromLongitude, toLongitude}, null)
+                .strokeColor(Color.RED)
+                .strokeWidth(8)
+                .build());
+    }
+
+    private Bitmap render(final int x, final int y, final int zoom) {
+        Tile tile = provider.getTile(x, y, zoom);
+        assertNotSame(TileProvider.NO_TILE, tile);
+        return BitmapFactory.decodeByteArray(tile.data, 0, tile.data.length);
+    }
+
+    private static void assertRed(final Bitmap tile, final int x, final int y, final int zoom,
+                                  final double latitude, final double longitude) {
+        float[] screen = new float[2];
+        RichMercatorProjection.forTile(x, y, zoom, TILE_SIZE, 0).toScreenLocations(
+                new double[]{RichUtils.toWorldX(longitude), RichUtils.toWorldY(latitude)},
+                1, screen);
+        assertEquals(Color.RED, tile.getPixel(Math.round(screen[0]), Math.round(screen[1])));
+    }
+}
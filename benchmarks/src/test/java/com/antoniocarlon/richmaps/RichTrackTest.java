@@ -0,0 +1,248 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.antoniocarlon.richmaps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Color;
+
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Points kept in the ring of a RichTrack, and the chunks and screen coordinates it draws
+ * them with. Drawn through RichAwtRenderer, so they don't run inside Robolectric.
+ */
+public class RichTrackTest {
+    private static final int SIZE = 1024;
+    private static final int CHUNK_SIZE = 64; // RichTrack.CHUNK_SIZE
+
+    private RecordingRenderer renderer;
+
+    @Before
+    public void setUp() {
+        renderer = new RecordingRenderer();
+    }
+
+    @After
+    public void tearDown() {
+        renderer.dispose();
+    }
+
+    @Test
+    public void keepsTheNewestPointsAcrossTheWrap() {
+        RichTrack track = track(100);
+        for (int i = 0; i < 250; i++) {
+            track.add(0, longitude(i), Color.RED);
+        }
+
+        List<RichPoint> points = track.getPoints();
+        assertEquals(100, points.size());
+        for (int i = 0; i < points.size(); i++) {
+            assertEquals(longitude(150 + i), points.get(i).getPosition().longitude, 1e-9);
+        }
+
+        RichProjection projection = view(0);
+        track.draw(renderer, projection);
+        assertEquals(1, renderer.paths);
+        assertVertices(projection, 150, 249);
+    }
+
+    @Test
+    public void drawsTheChunksCrossingTheClip() {
+        RichTrack track = track(0);
+        for (int i = 0; i < CHUNK_SIZE * 10; i++) {
+            track.add(0, longitude(i), Color.RED);
+        }
+        RichProjection projection = view(0);
+        float[] from = screen(projection, longitude(CHUNK_SIZE * 5 + 20));
+        float[] to = screen(projection, longitude(CHUNK_SIZE * 5 + 40));
+        renderer.clipRect(from[0], 0, to[0], SIZE);
+
+        track.draw(renderer, projection);
+        // Only the sixth chunk, with the segment reaching its first point
+        assertVertices(projection, CHUNK_SIZE * 5 - 1, CHUNK_SIZE * 6 - 1);
+    }
+
+    @Test
+    public void drawsTheSegmentReachingAChunk() {
+        RichTrack track = track(0);
+        for (int i = 0; i < CHUNK_SIZE; i++) {
+            track.add(0, -170 + i * 0.1, Color.RED);
+        }
+        for (int i = 0; i < CHUNK_SIZE; i++) {
+            track.add(0, 100 + i * 0.1, Color.RED);
+        }
+        // Only the segment between the chunks crosses the clip
+        RichProjection projection = view(0);
+        float[] from = screen(projection, -5);
+        float[] to = screen(projection, 5);
+        renderer.clipRect(from[0], 0, to[0], SIZE);
+
+        track.draw(renderer, projection);
+        assertEquals(CHUNK_SIZE + 1, renderer.vertices.size());
+        assertEquals(screen(projection, -170 + (CHUNK_SIZE - 1) * 0.1)[0],
+                renderer.vertices.get(0)[0], 1e-3f);
+        assertEquals(screen(projection, 100)[0], renderer.vertices.get(1)[0], 1e-3f);
+    }
+
+    @Test
+    public void projectsTheNewPointsForTheSameView() {
+        RichTrack track = track(200);
+        for (int i = 0; i < 100; i++) {
+            track.add(0, longitude(i), Color.RED);
+        }
+        CountingProjection projection = new CountingProjection(view(0));
+        track.draw(renderer, projection);
+        assertTrue(projection.count >= 100);
+
+        // Another projection of the same view, as each frame creates one
+        track.add(0, longitude(100), Color.RED);
+        projection = new CountingProjection(view(0));
+        track.draw(renderer, projection);
+        assertTrue(projection.count < 10);
+
+        projection = new CountingProjection(view(0.001));
+        track.draw(renderer, projection);
+        assertTrue(projection.count >= 101);
+    }
+
+    @Test
+    public void projectsThePointsAgainAfterTheWrap() {
+        RichTrack track = track(100);
+        for (int i = 0; i < 100; i++) {
+            track.add(0, longitude(i), Color.RED);
+        }
+        track.draw(renderer, view(0));
+
+        for (int i = 100; i < 250; i++) {
+            track.add(0, longitude(i), Color.RED);
+        }
+        RichProjection projection = view(0);
+        renderer.vertices.clear();
+        renderer.paths = 0;
+        track.draw(renderer, projection);
+        assertEquals(1, renderer.paths);
+        assertVertices(projection, 150, 249);
+    }
+
+    private static RichTrack track(final int capacity) {
+        return new RichPolylineOptions(new ArrayList<RichPoint>())
+                .strokeColor(Color.RED)
+                .linearGradient(false)
+                .buildTrack(capacity);
+    }
+
+    private static double longitude(final int index) {
+        return -160 + index * 0.5;
+    }
+
+    /**
+     * Projection of the whole world, moved dx world units to the east.
+     */
+    private static RichProjection view(final double dx) {
+        return new RichMercatorProjection(0.5 + dx, 0.5, SIZE, 0, SIZE, SIZE, 0);
+    }
+
+    private static float[] screen(final RichProjection projection, final double longitude) {
+        float[] screen = new float[2];
+        projection.toScreenLocations(new double[]{RichUtils.toWorldX(longitude),
+                RichUtils.toWorldY(0)}, 1, screen);
+        return screen;
+    }
+
+    /**
+     * Checks that the drawn vertices are the points from first to last, in order.
+     */
+    private void assertVertices(final RichProjection projection, final int first,
+                                final int last) {
+        assertEquals(last - first + 1, renderer.vertices.size());
+        for (int i = first; i <= last; i++) {
+            float[] expected = screen(projection, longitude(i));
+            float[] vertex = renderer.vertices.get(i - first);
+            assertEquals(expected[0], vertex[0], 1e-3f);
+            assertEquals(expected[1], vertex[1], 1e-3f);
+        }
+    }
+
+    /**
+     * Keeps the vertices of the drawn paths.
+     */
+    private static class RecordingRenderer extends RichAwtRenderer {
+        private final List<float[]> vertices = new ArrayList<>();
+        private int paths = 0;
+
+        RecordingRenderer() {
+            super(SIZE, SIZE);
+        }
+
+        @Override
+        public void moveTo(final float x, final float y) {
+            super.moveTo(x, y);
+            vertices.add(new float[]{x, y});
+        }
+
+        @Override
+        public void lineTo(final float x, final float y) {
+            super.lineTo(x, y);
+            vertices.add(new float[]{x, y});
+        }
+
+        @Override
+        public void strokePath(final int color) {
+            super.strokePath(color);
+            paths++;
+        }
+    }
+
+    /**
+     * Counts the points projected by the shapes.
+     */
+    private static class CountingProjection implements RichProjection {
+        private final RichProjection projection;
+        private int count = 0;
+
+        CountingProjection(final RichProjection projection) {
+            this.projection = projection;
+        }
+
+        @Override
+        public void toScreenLocations(final double[] worldCoordinates, final int count,
+                                      final float[] screenCoordinates) {
+            this.count += count;
+            projection.toScreenLocations(worldCoordinates, count, screenCoordinates);
+        }
+
+        @Override
+        public double getScale() {
+            return projection.getScale();
+        }
+
+        @Override
+        public LatLngBounds getVisibleBounds() {
+            return projection.getVisibleBounds();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Color;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Simplified vertex sets chosen by RichVertices.select.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class RichVerticesTest {
+    private static final double SCALE = 256 * Math.pow(2, 10); // Zoom 10
+    private static final float FINE = 0.5f; // Tolerance of the shape
+    private static final float DEGRADED = 2; // Tolerance of a degraded frame
+
+    @Test
+    public void fullQualityFrameAfterDegradedOneGetsTheFineVertices() {
+        int[] expected = wave().select(SCALE, FINE);
+
+        RichVertices vertices = wave();
+        int[] degraded = vertices.select(SCALE, DEGRADED);
+        int[] fine = vertices.select(SCALE, FINE);
+
+        assertTrue(degraded.length < fine.length);
+        assertArrayEquals(expected, fine);
+        assertSame(degraded, vertices.select(SCALE, DEGRADED));
+    }
+
+    @Test
+    public void selectsVerticesAtAnyScale() {
+        RichVertices vertices = wave();
+        int all = vertices.select(SCALE, 0).length;
+
+        // Below the first zoom band, and far beyond the last one
+        assertTrue(vertices.select(0.5, FINE).length < all);
+        assertEquals(all, vertices.select(Math.scalb(1.0, 60), FINE).length);
+        assertEquals(all, vertices.select(Double.MAX_VALUE, FINE).length);
+    }
+
+    /**
+     * Sine wave about 7 pixels high at zoom 10, with a vertex every pixel.
+     */
+    private static RichVertices wave() {
+        RichVertices vertices = new RichVertices();
+        for (int i = 0; i < 1000; i++) {
+            vertices.add(0.01 * Math.sin(i * 0.05), i * 0.001, Color.RED);
+        }
+        return vertices;
+    }
+}
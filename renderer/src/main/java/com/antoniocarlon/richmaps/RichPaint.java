@@ -0,0 +1,54 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+/**
+ * Style of the strokes and fills drawn by a RichRenderer. The values are declared in
+ * the same order as their android.graphics.Paint counterparts, which they can be
+ * converted from by name.
+ */
+public final class RichPaint {
+    private RichPaint() {
+    }
+
+    /**
+     * Shape of the ends of a stroke.
+     */
+    public enum Cap {
+        BUTT,
+        ROUND,
+        SQUARE
+    }
+
+    /**
+     * Shape of the corners of a stroke.
+     */
+    public enum Join {
+        MITER,
+        ROUND,
+        BEVEL
+    }
+
+    /**
+     * Whether a polygon is filled, stroked or both.
+     */
+    public enum Style {
+        FILL,
+        STROKE,
+        FILL_AND_STROKE
+    }
+}
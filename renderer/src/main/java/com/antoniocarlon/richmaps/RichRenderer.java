@@ -0,0 +1,117 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+/**
+ * Raster target the shapes are drawn into, in screen coordinates of the projection.
+ * The current path is built with moveTo, lineTo, closePath and addCircle, and each
+ * fillPath, strokePath or erasePath draws it and starts a new one.
+ * <p>
+ * The interface only uses plain Java types, so renderers can be written for any raster
+ * backend. RichCanvasRenderer draws into an Android Bitmap and is the one used by the
+ * layers; it also draws the Android shaders, path effects and mask filters of the shapes,
+ * which other renderers (e.g. RichAwtRenderer in the awt module) don't have.
+ * A renderer must only be used by one thread at a time.
+ */
+public interface RichRenderer {
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * Sets the quality of the next shapes drawn, lowered when rendering takes too long.
+     * The simplification tolerance (in pixels) applies to the shapes with a lower one.
+     */
+    void setQuality(boolean antialias, boolean effects, float simplifyTolerance);
+
+    float getSimplifyTolerance();
+
+    /**
+     * Returns a scratch buffer with room for at least count screen points
+     * (x0, y0, x1, y1...), shared by all the shapes drawn with this renderer.
+     */
+    float[] getScreenBuffer(int count);
+
+    /**
+     * Saves the transformation and the clip, returning the count to restore.
+     */
+    int save();
+
+    void restoreToCount(int saveCount);
+
+    void scale(float scale);
+
+    void translate(float dx, float dy);
+
+    void clipRect(float left, float top, float right, float bottom);
+
+    /**
+     * Returns true if the rectangle is completely outside the clip, so anything drawn
+     * inside it would have no effect. It may return false for rectangles outside the clip.
+     */
+    boolean quickReject(float left, float top, float right, float bottom);
+
+    /**
+     * Makes the clipped area transparent.
+     */
+    void clear();
+
+    void moveTo(float x, float y);
+
+    void lineTo(float x, float y);
+
+    void closePath();
+
+    void addCircle(float x, float y, float radius);
+
+    /**
+     * Sets the stroke used by strokePath and strokeLine.
+     */
+    void setStroke(float width, RichPaint.Cap cap, RichPaint.Join join, boolean antialias);
+
+    /**
+     * Strokes the current path with the color.
+     */
+    void strokePath(int color);
+
+    /**
+     * Strokes a line with a linear gradient from fromColor to toColor.
+     */
+    void strokeLine(float fromX, float fromY, float toX, float toY,
+                    int fromColor, int toColor);
+
+    /**
+     * Fills the current path with the color.
+     */
+    void fillPath(int color, boolean antialias);
+
+    /**
+     * Makes the area of the current path transparent (e.g. polygon holes).
+     */
+    void erasePath(boolean antialias);
+
+    /**
+     * Draws count round dots of the given diameter at the points (x0, y0, x1, y1...)
+     * starting at offset.
+     */
+    void drawPoints(float[] points, int offset, int count, int color, float size);
+
+    /**
+     * Draws the text centered horizontally at x, with its baseline at y.
+     */
+    void drawText(String text, float x, float y, int color, float size);
+}
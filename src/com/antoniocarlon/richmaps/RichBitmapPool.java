@@ -0,0 +1,103 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Small pool of Bitmaps reused between renders, keyed by dimensions and config.
+ * Bitmaps with enough memory are reconfigured instead of allocating new ones
+ * (e.g. when the device is rotated).
+ */
+class RichBitmapPool {
+    private int capacity;
+    private List<Bitmap> bitmaps = new ArrayList<>();
+
+    RichBitmapPool(final int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns a transparent Bitmap with the given dimensions and config.
+     */
+    public synchronized Bitmap acquire(final int width, final int height,
+                                       final Bitmap.Config config) {
+        for (int i = 0; i < bitmaps.size(); i++) {
+            Bitmap bitmap = bitmaps.get(i);
+            if (bitmap.getWidth() == width && bitmap.getHeight() == height
+                    && bitmap.getConfig() == config) {
+                bitmaps.remove(i);
+                bitmap.eraseColor(Color.TRANSPARENT);
+                return bitmap;
+            }
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            long byteCount = (long) width * height * bytesPerPixel(config);
+            for (int i = 0; i < bitmaps.size(); i++) {
+                Bitmap bitmap = bitmaps.get(i);
+                if (bitmap.isMutable() && bitmap.getAllocationByteCount() >= byteCount) {
+                    bitmaps.remove(i);
+                    bitmap.reconfigure(width, height, config);
+                    bitmap.eraseColor(Color.TRANSPARENT);
+                    return bitmap;
+                }
+            }
+        }
+
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * Gives a Bitmap back to the pool. The least recently released Bitmap is
+     * recycled when the pool is full.
+     */
+    public synchronized void release(final Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || bitmaps.contains(bitmap)) {
+            return;
+        }
+
+        if (bitmaps.size() >= capacity) {
+            bitmaps.remove(0).recycle();
+        }
+        bitmaps.add(bitmap);
+    }
+
+    public synchronized void clear() {
+        for (Bitmap bitmap : bitmaps) {
+            bitmap.recycle();
+        }
+        bitmaps.clear();
+    }
+
+    private static int bytesPerPixel(final Bitmap.Config config) {
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            default:
+                return 4;
+        }
+    }
+}
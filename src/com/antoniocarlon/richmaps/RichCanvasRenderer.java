@@ -0,0 +1,353 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.LinearGradient;
+import android.graphics.MaskFilter;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PathEffect;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Shader;
+
+/**
+ * Renderer drawing into an Android Bitmap. The drawing objects are reused across shapes
+ * and frames, and there is one renderer per thread, as shapes can be drawn in parallel
+ * (e.g. tiles). Besides RichRenderer, it draws the Android shaders, path effects and mask
+ * filters of the shapes.
+ */
+public class RichCanvasRenderer implements RichRenderer {
+    private static final ThreadLocal<RichCanvasRenderer> RENDERERS = new ThreadLocal<>();
+    private static final int GRADIENT_CACHE_SIZE = 1024; // Must be a power of 2
+    private static final PorterDuffXfermode ERASE_XFERMODE =
+            new PorterDuffXfermode(PorterDuff.Mode.DST_IN);
+
+    private final Canvas canvas = new Canvas();
+    private final Paint paint = new Paint();
+    private final Paint strokePaint = new Paint();
+    private final Path path = new Path();
+    private Bitmap bitmap;
+
+    // Quality of the drawing, lowered by the layer when rendering takes too long
+    private boolean antialias = true;
+    private boolean effects = true; // MaskFilters and PathEffects
+    private float simplifyTolerance = 0;
+
+    private float[] screenBuffer = new float[64];
+
+    // Direct-mapped cache of unit gradients (from x = 0 to x = 1) keyed by their colors
+    private long[] gradientKeys = new long[GRADIENT_CACHE_SIZE];
+    private LinearGradient[] gradients = new LinearGradient[GRADIENT_CACHE_SIZE];
+    private Matrix gradientMatrix = new Matrix();
+    private float[] gradientMatrixValues = new float[]{0, 0, 0, 0, 0, 0, 0, 0, 1};
+
+    public RichCanvasRenderer(final Bitmap bitmap) {
+        if (bitmap == null) {
+            throw new IllegalArgumentException("Bitmap cannot be null");
+        }
+        setBitmap(bitmap);
+    }
+
+    /**
+     * Returns the renderer of the current thread drawing into the Bitmap.
+     */
+    static RichCanvasRenderer obtain(final Bitmap bitmap) {
+        RichCanvasRenderer renderer = RENDERERS.get();
+        if (renderer == null) {
+            renderer = new RichCanvasRenderer(bitmap);
+            RENDERERS.set(renderer);
+        } else if (renderer.bitmap != bitmap) {
+            renderer.setBitmap(bitmap);
+        }
+        return renderer;
+    }
+
+    private void setBitmap(final Bitmap bitmap) {
+        canvas.setBitmap(bitmap);
+        this.bitmap = bitmap;
+    }
+
+    @Override
+    public int getWidth() {
+        return bitmap.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return bitmap.getHeight();
+    }
+
+    @Override
+    public void setQuality(final boolean antialias, final boolean effects,
+                           final float simplifyTolerance) {
+        this.antialias = antialias;
+        this.effects = effects;
+        this.simplifyTolerance = simplifyTolerance;
+    }
+
+    @Override
+    public float getSimplifyTolerance() {
+        return simplifyTolerance;
+    }
+
+    @Override
+    public float[] getScreenBuffer(final int count) {
+        if (screenBuffer.length < count * 2) {
+            screenBuffer = new float[count * 2];
+        }
+        return screenBuffer;
+    }
+
+    @Override
+    public int save() {
+        return canvas.save();
+    }
+
+    @Override
+    public void restoreToCount(final int saveCount) {
+        canvas.restoreToCount(saveCount);
+    }
+
+    @Override
+    public void scale(final float scale) {
+        canvas.scale(scale, scale);
+    }
+
+    @Override
+    public void translate(final float dx, final float dy) {
+        canvas.translate(dx, dy);
+    }
+
+    @Override
+    public void clipRect(final float left, final float top, final float right,
+                         final float bottom) {
+        canvas.clipRect(left, top, right, bottom);
+    }
+
+    @Override
+    public boolean quickReject(final float left, final float top, final float right,
+                               final float bottom) {
+        return canvas.quickReject(left, top, right, bottom, Canvas.EdgeType.AA);
+    }
+
+    @Override
+    public void clear() {
+        canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+    }
+
+    @Override
+    public void moveTo(final float x, final float y) {
+        path.moveTo(x, y);
+    }
+
+    @Override
+    public void lineTo(final float x, final float y) {
+        path.lineTo(x, y);
+    }
+
+    @Override
+    public void closePath() {
+        path.close();
+    }
+
+    @Override
+    public void addCircle(final float x, final float y, final float radius) {
+        path.addCircle(x, y, radius, Path.Direction.CW);
+    }
+
+    @Override
+    public void setStroke(final float width, final RichPaint.Cap cap, final RichPaint.Join join,
+                          final boolean strokeAntialias) {
+        setStroke(width, cap, join, strokeAntialias, null, null);
+    }
+
+    /**
+     * Sets the stroke with the Android effects of the shape, which are skipped when the
+     * quality is lowered.
+     */
+    public void setStroke(final float width, final RichPaint.Cap cap, final RichPaint.Join join,
+                          final boolean strokeAntialias, final PathEffect pathEffect,
+                          final MaskFilter maskFilter) {
+        strokePaint.reset();
+        strokePaint.setStyle(Paint.Style.STROKE);
+        strokePaint.setStrokeWidth(width);
+        strokePaint.setAntiAlias(strokeAntialias && antialias);
+        strokePaint.setStrokeCap(toAndroid(cap));
+        strokePaint.setStrokeJoin(toAndroid(join));
+        if (effects) {
+            strokePaint.setPathEffect(pathEffect);
+            strokePaint.setMaskFilter(maskFilter);
+        }
+    }
+
+    @Override
+    public void strokePath(final int color) {
+        strokePath(color, null);
+    }
+
+    /**
+     * Strokes the current path with the color, or with the shader if it's not null.
+     */
+    public void strokePath(final int color, final Shader shader) {
+        strokePaint.setColor(color);
+        strokePaint.setShader(shader);
+        canvas.drawPath(path, strokePaint);
+        path.rewind();
+    }
+
+    @Override
+    public void strokeLine(final float fromX, final float fromY,
+                           final float toX, final float toY,
+                           final int fromColor, final int toColor) {
+        // Cached shader, so no objects are allocated per segment
+        Shader gradient = gradient(fromColor, toColor, fromX, fromY, toX, toY);
+        strokePaint.setShader(gradient);
+        if (gradient == null) {
+            strokePaint.setColor(fromColor);
+        }
+        canvas.drawLine(fromX, fromY, toX, toY, strokePaint);
+    }
+
+    @Override
+    public void fillPath(final int color, final boolean fillAntialias) {
+        fillPath(color, null, fillAntialias);
+    }
+
+    /**
+     * Fills the current path with the color, or with the shader if it's not null.
+     */
+    public void fillPath(final int color, final Shader shader, final boolean fillAntialias) {
+        paint.reset();
+        paint.setStyle(Paint.Style.FILL);
+        paint.setColor(color);
+        paint.setShader(shader);
+        paint.setAntiAlias(fillAntialias && antialias);
+        canvas.drawPath(path, paint);
+        path.rewind();
+    }
+
+    @Override
+    public void erasePath(final boolean eraseAntialias) {
+        paint.reset();
+        paint.setAlpha(0);
+        paint.setXfermode(ERASE_XFERMODE);
+        paint.setAntiAlias(eraseAntialias && antialias);
+        canvas.drawPath(path, paint);
+        path.rewind();
+    }
+
+    @Override
+    public void drawPoints(final float[] points, final int offset, final int count,
+                           final int color, final float size) {
+        paint.reset();
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setStrokeCap(Paint.Cap.ROUND);
+        paint.setStrokeWidth(size);
+        paint.setAntiAlias(antialias);
+        paint.setColor(color);
+        canvas.drawPoints(points, offset * 2, count * 2, paint);
+    }
+
+    @Override
+    public void drawText(final String text, final float x, final float y, final int color,
+                         final float size) {
+        paint.reset();
+        paint.setColor(color);
+        paint.setAntiAlias(antialias);
+        paint.setTextAlign(Paint.Align.CENTER);
+        paint.setTextSize(size);
+        canvas.drawText(text, x, y, paint);
+    }
+
+    /**
+     * Draws the Bitmap over the current content, with its top left corner at (left, top).
+     */
+    public void drawBitmap(final Bitmap source, final float left, final float top) {
+        canvas.drawBitmap(source, left, top, null);
+    }
+
+    /**
+     * Returns a gradient shader going from fromColor at (fromX, fromY) to toColor
+     * at (toX, toY), or null if both points are the same or the colors are too close to
+     * tell apart. The colors are quantized to 5 bits per channel, so tracks colored by a
+     * continuous value (e.g. their speed) reuse a few shaders. The shader is shared by all
+     * the segments with the same colors, so it must be used before calling this again.
+     */
+    Shader gradient(final int fromColor, final int toColor,
+                    final float fromX, final float fromY,
+                    final float toX, final float toY) {
+        float dx = toX - fromX;
+        float dy = toY - fromY;
+        int from = quantize(fromColor);
+        int to = quantize(toColor);
+        if ((dx == 0 && dy == 0) || from == to) {
+            return null;
+        }
+
+        long key = ((long) from << 32) | (to & 0xFFFFFFFFL);
+        long hash = (key ^ (key >>> 29)) * 0x9E3779B97F4A7C15L;
+        int slot = (int) (hash >>> 32) & (GRADIENT_CACHE_SIZE - 1);
+        LinearGradient gradient = gradients[slot];
+        if (gradient == null || gradientKeys[slot] != key) {
+            gradient = new LinearGradient(0, 0, 1, 0, from, to, Shader.TileMode.CLAMP);
+            gradients[slot] = gradient;
+            gradientKeys[slot] = key;
+        }
+
+        // Maps (0, 0) to the start, (1, 0) to the end and (0, 1) to the perpendicular
+        gradientMatrixValues[Matrix.MSCALE_X] = dx;
+        gradientMatrixValues[Matrix.MSKEW_X] = -dy;
+        gradientMatrixValues[Matrix.MTRANS_X] = fromX;
+        gradientMatrixValues[Matrix.MSKEW_Y] = dy;
+        gradientMatrixValues[Matrix.MSCALE_Y] = dx;
+        gradientMatrixValues[Matrix.MTRANS_Y] = fromY;
+        gradientMatrix.setValues(gradientMatrixValues);
+        gradient.setLocalMatrix(gradientMatrix);
+        return gradient;
+    }
+
+    /**
+     * Rounds the red, green and blue channels of the color to 5 bits, keeping its alpha.
+     */
+    private static int quantize(final int color) {
+        int quantized = color & 0xFF000000;
+        for (int shift = 0; shift < 24; shift += 8) {
+            int level = Math.min(31, (((color >>> shift) & 0xFF) + 4) >> 3);
+            quantized |= ((level << 3) | (level >>> 2)) << shift;
+        }
+        return quantized;
+    }
+
+    private static Paint.Cap toAndroid(final RichPaint.Cap cap) {
+        if (cap == RichPaint.Cap.BUTT) {
+            return Paint.Cap.BUTT;
+        }
+        return cap == RichPaint.Cap.SQUARE ? Paint.Cap.SQUARE : Paint.Cap.ROUND;
+    }
+
+    private static Paint.Join toAndroid(final RichPaint.Join join) {
+        if (join == RichPaint.Join.ROUND) {
+            return Paint.Join.ROUND;
+        }
+        return join == RichPaint.Join.BEVEL ? Paint.Join.BEVEL : Paint.Join.MITER;
+    }
+}
@@ -1,182 +1,1487 @@
-/*
- * Copyright 2016 ANTONIO CARLON
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- * http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-
-package com.antoniocarlon.richmaps;
-
-import android.graphics.Bitmap;
-import android.graphics.Color;
-import android.view.View;
-
-import com.google.android.gms.maps.GoogleMap;
-import com.google.android.gms.maps.Projection;
-import com.google.android.gms.maps.model.BitmapDescriptorFactory;
-import com.google.android.gms.maps.model.CameraPosition;
-import com.google.android.gms.maps.model.GroundOverlay;
-import com.google.android.gms.maps.model.GroundOverlayOptions;
-import com.google.maps.android.SphericalUtil;
-
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeMap;
-
-/**
- * Represents a layer on the map that will be drawn using rich symbology.
- * It's drawn as a GroundOverlay.
- */
-public class RichLayer {
-    private static final float MINIMUM_ZOOM_LEVEL = 5f;
-    private View view;
-    private GoogleMap map;
-    private float zIndex = 0;
-    private GroundOverlay overlay;
-    private SortedMap<Integer, List<RichShape>> shapes = new TreeMap<>();
-    private Bitmap bitmap;
-    private int paddingLeft;
-    private int paddingTop;
-    private int paddingRight;
-    private int paddingBottom;
-
-    private RichLayer(final View view, final GoogleMap map, final float zIndex,
-                      final int paddingLeft, final int paddingTop,
-                      final int paddingRight, final int paddingBottom) {
-        if (view == null || map == null) {
-            throw new IllegalArgumentException("View and GoogleMap cannot be null");
-        }
-
-        this.view = view;
-        this.map = map;
-        this.zIndex = zIndex;
-        this.paddingLeft = paddingLeft;
-        this.paddingTop = paddingTop;
-        this.paddingRight = paddingRight;
-        this.paddingBottom = paddingBottom;
-
-        map.getUiSettings().setTiltGesturesEnabled(false); // For now, tilt gestures are not allowed when using RichLayer
-    }
-
-    public void refresh() {
-        CameraPosition cameraPosition = map.getCameraPosition();
-        if (cameraPosition.zoom >= MINIMUM_ZOOM_LEVEL) {
-            Projection projection = map.getProjection();
-
-            prepareBitmap();
-            draw(bitmap, projection);
-
-            float mapWidth = (float) SphericalUtil.computeDistanceBetween(
-                    projection.getVisibleRegion().nearLeft,
-                    projection.getVisibleRegion().nearRight);
-
-            if (overlay == null) {
-                GroundOverlayOptions background = new GroundOverlayOptions()
-                        .image(BitmapDescriptorFactory.fromBitmap(bitmap))
-                        .position(cameraPosition.target, mapWidth)
-                        .bearing(cameraPosition.bearing)
-                        .zIndex(zIndex);
-                overlay = map.addGroundOverlay(background);
-            } else {
-                overlay.setImage(BitmapDescriptorFactory.fromBitmap(bitmap));
-                overlay.setPosition(cameraPosition.target);
-                overlay.setDimensions(mapWidth);
-                overlay.setBearing(cameraPosition.bearing);
-            }
-        } else {
-            if (overlay != null) {
-                overlay.remove();
-                overlay = null;
-            }
-        }
-    }
-
-    public void addShape(final RichShape shape) {
-        if (shape != null) {
-            if (!shapes.containsKey(shape.getZIndex())) {
-                shapes.put(shape.getZIndex(), new ArrayList<RichShape>());
-            }
-
-            List<RichShape> shapesZIndez = shapes.get(shape.getZIndex());
-            shapesZIndez.add(shape);
-        }
-    }
-
-    public void removeShape(final RichShape shape) {
-        if (shape != null) {
-            Set<Integer> zIndices = shapes.keySet();
-            for (Integer zIndex : zIndices) {
-                List<RichShape> shapesZIndex = shapes.get(zIndex);
-                shapesZIndex.remove(shape);
-            }
-        }
-    }
-
-    private void prepareBitmap() {
-        if (bitmap == null || bitmap.getWidth() != view.getWidth()
-                || bitmap.getHeight() != view.getHeight()) {
-            bitmap = Bitmap.createBitmap(view.getWidth(), view.getHeight(), Bitmap.Config.ARGB_8888);
-        } else {
-            bitmap.eraseColor(Color.TRANSPARENT);
-        }
-    }
-
-    private Bitmap draw(final Bitmap bitmap, final Projection projection) {
-        Set<Integer> zIndices = shapes.keySet();
-        for (Integer zIndex : zIndices) {
-            draw(bitmap, projection, shapes.get(zIndex));
-        }
-
-        return bitmap;
-    }
-
-    private Bitmap draw(final Bitmap bitmap, final Projection projection,
-                        final List<RichShape> shapes) {
-        for (RichShape shape : shapes) {
-            shape.draw(bitmap, projection, paddingLeft, paddingTop, paddingRight, paddingBottom);
-        }
-        return bitmap;
-    }
-
-    public static class Builder {
-        private View view;
-        private GoogleMap map;
-        private float zIndex = 0;
-        private int paddingLeft = 0;
-        private int paddingTop = 0;
-        private int paddingRight = 0;
-        private int paddingBottom = 0;
-
-        public Builder(final View view, final GoogleMap map) {
-            this.view = view;
-            this.map = map;
-        }
-
-        public Builder zIndex(final float zIndex) {
-            this.zIndex = zIndex;
-            return this;
-        }
-
-        public Builder padding(final int top, final int bottom) {
-            this.paddingTop = top;
-            this.paddingBottom = bottom;
-            return this;
-        }
-
-        public RichLayer build() {
-            return new RichLayer(view, map, zIndex,
-                    paddingLeft, paddingTop, paddingRight, paddingBottom);
-        }
-    }
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+import android.graphics.Bitmap;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.View;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.Projection;
+import com.google.android.gms.maps.model.BitmapDescriptor;
+import com.google.android.gms.maps.model.BitmapDescriptorFactory;
+import com.google.android.gms.maps.model.CameraPosition;
+import com.google.android.gms.maps.model.GroundOverlay;
+import com.google.android.gms.maps.model.GroundOverlayOptions;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.TileOverlay;
+import com.google.android.gms.maps.model.TileOverlayOptions;
+import com.google.maps.android.SphericalUtil;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Represents a layer on the map that will be drawn using rich symbology.
+ * It's drawn as a GroundOverlay.
+ * When an Executor is set, the shapes are rasterized in the background and only
+ * the GroundOverlay update is done on the main thread.
+ * In tiled mode it's drawn as a TileOverlay instead, rendering only the tiles
+ * requested by the map.
+ * While the camera doesn't move, changes to the shapes only redraw the area they cover.
+ * The layer can be rendered with an overscan border, so it's not drawn again while the
+ * camera moves inside the rendered area (the GroundOverlay stays anchored to the map).
+ * With a render budget, the quality is lowered while frames take too long to render and
+ * a full quality frame is rendered once the camera stops.
+ * With parallelism, each frame is rasterized by several threads, split into zIndex bands
+ * (or into horizontal stripes when all the visible shapes have the same zIndex).
+ * With a style, the shapes are colored and sized from their attributes or the zoom level.
+ */
+public class RichLayer {
+    private static final float MINIMUM_ZOOM_LEVEL = 5f;
+    private static final long IDLE_DELAY = 300; // In milliseconds, before the full quality frame
+    private static final float MAXIMUM_DIRTY_FRACTION = 0.5f; // Above it, the whole frame is drawn
+    private static final Comparator<RichShape> DRAWING_ORDER = new Comparator<RichShape>() {
+        @Override
+        public int compare(final RichShape lhs, final RichShape rhs) {
+            if (lhs.getZIndex() != rhs.getZIndex()) {
+                return lhs.getZIndex() < rhs.getZIndex() ? -1 : 1;
+            }
+            return lhs.order < rhs.order ? -1 : (lhs.order == rhs.order ? 0 : 1);
+        }
+    };
+
+    private View view;
+    private GoogleMap map;
+    private float zIndex = 0;
+    private GroundOverlay overlay;
+    private SortedMap<Integer, Set<RichShape>> shapes = new TreeMap<>(); // In insertion order
+    private RichRTree<RichShape> index = new RichRTree<>(); // Also guards shapes
+    private Queue<ShapeUpdate> updates = new ConcurrentLinkedQueue<>();
+    private long shapeOrder = 0; // Guarded by the index
+    private RichBitmapPool bitmapPool;
+    private Bitmap.Config bitmapConfig = Bitmap.Config.ARGB_8888;
+    // A frame's Bitmap is never drawn into again once it's rendered, as the map may be
+    // showing it. It goes back to the pool when it's neither the last rendered nor the shown
+    private final Object frameLock = new Object();
+    private Frame lastFrame; // Last rendered, changes are drawn over a copy of it
+    private Frame frontFrame; // Shown by the overlay
+    private int overscan;
+    private float zoomThreshold;
+    private RichLevelOfDetail levelOfDetail; // Null if shapes are always drawn with their geometry
+    private float minZoom;
+    private RichRenderBudget budget; // Null if the quality is never lowered
+    private float renderScale; // Resolution of the Bitmap relative to the view
+    private int parallelism;
+    private ExecutorService rasterPool; // Null if frames are rasterized on a single thread
+    private volatile RichStyle style; // Null if the shapes are drawn with their own style
+    private double zoomScale; // Pixels per world unit at zoom 0
+    private final Runnable idleRefresh = new Runnable() {
+        @Override
+        public void run() {
+            refresh(true);
+        }
+    };
+    private final Object dirtyLock = new Object();
+    private DirtyRegion dirty;
+    private volatile float maxStrokeWidth = 0;
+    private Executor executor;
+    private boolean ownsExecutor;
+    private Handler mainHandler = new Handler(Looper.getMainLooper());
+    private AtomicLong renderGeneration = new AtomicLong();
+    private final Object renderLock = new Object();
+    private AtomicLong version = new AtomicLong();
+    private RichTileProvider tileProvider;
+    private TileOverlay tileOverlay;
+    private long tileVersion;
+
+    private RichLayer(final Builder builder) {
+        if (builder.view == null || builder.map == null) {
+            throw new IllegalArgumentException("View and GoogleMap cannot be null");
+        }
+
+        this.view = builder.view;
+        this.map = builder.map;
+        this.zIndex = builder.zIndex;
+        this.executor = builder.executor;
+        if (builder.async && executor == null) {
+            this.executor = Executors.newSingleThreadExecutor();
+            this.ownsExecutor = true;
+        }
+        this.bitmapConfig = builder.bitmapConfig;
+        this.overscan = builder.overscan;
+        this.zoomThreshold = builder.zoomThreshold;
+        if (builder.minShapeSize > 0) {
+            this.levelOfDetail = new RichLevelOfDetail(builder.minShapeSize, builder.clusterSize);
+        }
+        // Small shapes are cheap to draw as dots, so there's no need to hide the layer
+        this.minZoom = builder.minZoom != null ? builder.minZoom
+                : (builder.minShapeSize > 0 ? 0 : MINIMUM_ZOOM_LEVEL);
+        if (builder.renderBudget > 0) {
+            this.budget = new RichRenderBudget(builder.renderBudget, builder.degradation);
+        }
+        this.renderScale = builder.renderScale;
+        this.parallelism = builder.parallelism;
+        this.style = builder.style;
+        this.maxStrokeWidth = style != null ? style.getMaxStrokeWidth() : 0;
+        // Tiles are drawn at tileSize pixels per world unit at zoom 0, frames in dp
+        this.zoomScale = builder.tiled ? builder.tileSize : RichMercatorProjection.WORLD_SIZE_DP
+                * view.getResources().getDisplayMetrics().density;
+        // Frames waiting to be reused, plus one Bitmap per extra band or stripe
+        this.bitmapPool = new RichBitmapPool(parallelism + 1);
+        if (parallelism > 1 && !builder.tiled
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            this.rasterPool = new ForkJoinPool(parallelism);
+        }
+        if (builder.tiled) {
+            this.tileProvider = new RichTileProvider(this, builder.tileSize, bitmapConfig);
+        }
+
+        map.getUiSettings().setTiltGesturesEnabled(false); // For now, tilt gestures are not allowed when using RichLayer
+    }
+
+    public void refresh() {
+        refresh(false);
+    }
+
+    /**
+     * The idle refresh renders at full quality the frames rendered with a lower quality.
+     */
+    private void refresh(final boolean idle) {
+        if (tileProvider != null) {
+            refreshTiles();
+            return;
+        }
+
+        // Any render still in flight for a previous camera position becomes stale
+        long generation = renderGeneration.incrementAndGet();
+
+        CameraPosition cameraPosition = map.getCameraPosition();
+        if (cameraPosition.zoom >= minZoom
+                && view.getWidth() > 0 && view.getHeight() > 0) {
+            final RenderRequest request = new RenderRequest(generation, cameraPosition,
+                    map.getProjection(), view.getWidth(), view.getHeight(), overscan,
+                    view.getResources().getDisplayMetrics().density, takeDirtyRegion(),
+                    idle || budget == null ? 0 : budget.getLevel(), idle);
+
+            if (executor == null) {
+                Frame frame = render(request);
+                if (frame != null) {
+                    showFrame(frame);
+                }
+            } else {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        final Frame frame = render(request);
+                        if (frame != null) {
+                            mainHandler.post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    // A stale frame is not shown, but it stays the last
+                                    // rendered, so the next render can show it or draw over it
+                                    if (!isStale(request)) {
+                                        showFrame(frame);
+                                    }
+                                }
+                            });
+                        }
+                    }
+                });
+            }
+
+            if (budget != null && !idle) {
+                mainHandler.removeCallbacks(idleRefresh);
+                mainHandler.postDelayed(idleRefresh, IDLE_DELAY);
+            }
+        } else {
+            if (overlay != null) {
+                overlay.remove();
+                overlay = null;
+            }
+            setFrontFrame(null);
+        }
+    }
+
+    /**
+     * Adds the shape to the layer. It can be called from any thread, as it's only queued
+     * and applied before the next frame is rendered.
+     */
+    public void addShape(final RichShape shape) {
+        if (shape != null) {
+            addShapes(Collections.singletonList(shape));
+        }
+    }
+
+    /**
+     * Adds the shapes in a single transaction: they are drawn in the same frame, and large
+     * batches are indexed at once instead of one by one.
+     */
+    public void addShapes(final Collection<? extends RichShape> shapesToAdd) {
+        List<RichShape> added = copyOf(shapesToAdd);
+        synchronized (updates) {
+            for (RichShape shape : added) {
+                shape.owner = this;
+            }
+            commit(Operation.ADD, added);
+        }
+        invalidate(added);
+    }
+
+    /**
+     * Removes the shape from the layer. It can be called from any thread, as it's only
+     * queued and applied before the next frame is rendered.
+     */
+    public void removeShape(final RichShape shape) {
+        if (shape != null) {
+            removeShapes(Collections.singletonList(shape));
+        }
+    }
+
+    /**
+     * Removes the shapes in a single transaction. Each removal takes constant time in
+     * its zIndex and logarithmic time in the spatial index.
+     */
+    public void removeShapes(final Collection<? extends RichShape> shapesToRemove) {
+        List<RichShape> removed = copyOf(shapesToRemove);
+        synchronized (updates) {
+            for (RichShape shape : removed) {
+                if (shape.owner == this) {
+                    shape.owner = null;
+                }
+            }
+            commit(Operation.REMOVE, removed);
+        }
+        invalidate(removed);
+    }
+
+    /**
+     * Replaces all the shapes of the layer in a single transaction, e.g. when a dataset
+     * is reloaded. The spatial index is built again from scratch.
+     */
+    public void replaceAll(final Collection<? extends RichShape> newShapes) {
+        List<RichShape> added = copyOf(newShapes);
+        synchronized (updates) {
+            for (RichShape shape : added) {
+                shape.owner = this;
+            }
+            commit(Operation.REPLACE, added);
+        }
+        invalidateAll();
+    }
+
+    /**
+     * Removes all the shapes of the layer.
+     */
+    public void clear() {
+        replaceAll(Collections.<RichShape>emptyList());
+    }
+
+    private static List<RichShape> copyOf(final Collection<? extends RichShape> shapesToCopy) {
+        if (shapesToCopy == null) {
+            throw new IllegalArgumentException("Shapes cannot be null");
+        }
+
+        List<RichShape> copy = new ArrayList<>(shapesToCopy.size());
+        for (RichShape shape : shapesToCopy) {
+            if (shape != null) {
+                copy.add(shape);
+            }
+        }
+        return copy;
+    }
+
+    private void commit(final Operation operation, final List<RichShape> changed) {
+        if (!changed.isEmpty() || operation == Operation.REPLACE) {
+            updates.add(new ShapeUpdate(operation, changed));
+            version.incrementAndGet();
+        }
+    }
+
+    /**
+     * Applies the queued additions, removals and changes of shapes. Writers only queue
+     * them, so they never wait for a render, and each render works on the shapes it got
+     * from the index when it started. The layer and drawing order of the shapes are only
+     * set here, with the lock of the index the renders sort them with.
+     */
+    private void applyUpdates() {
+        synchronized (index) {
+            ShapeUpdate update;
+            while ((update = updates.poll()) != null) {
+                switch (update.operation) {
+                    case ADD:
+                        addToIndex(update.shapes);
+                        break;
+                    case REMOVE:
+                        removeFromIndex(update.shapes);
+                        break;
+                    case REPLACE:
+                        Set<RichShape> kept = new HashSet<>(update.shapes);
+                        for (Set<RichShape> shapesZIndex : shapes.values()) {
+                            for (RichShape shape : shapesZIndex) {
+                                if (shape.layer == this && !kept.contains(shape)) {
+                                    shape.layer = null;
+                                }
+                            }
+                        }
+                        shapes.clear();
+                        index.clear();
+                        maxStrokeWidth = style != null ? style.getMaxStrokeWidth() : 0;
+                        addToIndex(update.shapes);
+                        break;
+                    default:
+                        for (RichShape shape : update.shapes) {
+                            // Changes of shapes removed in the meantime are ignored
+                            if (shape.layer == this) {
+                                maxStrokeWidth = Math.max(maxStrokeWidth, strokeWidthOf(shape));
+                                updateIndex(shape);
+                            }
+                        }
+                        break;
+                }
+            }
+        }
+    }
+
+    // Called with the lock of the index
+    private void addToIndex(final List<RichShape> shapesToAdd) {
+        // Large batches are packed into a new tree instead of inserted one by one
+        boolean rebuild = shapesToAdd.size() > 1 && shapesToAdd.size() * 2 >= index.size();
+        for (RichShape shape : shapesToAdd) {
+            Set<RichShape> shapesZIndex = shapes.get(shape.getZIndex());
+            if (shapesZIndex == null) {
+                shapesZIndex = new LinkedHashSet<>();
+                shapes.put(shape.getZIndex(), shapesZIndex);
+            }
+            shapesZIndex.remove(shape); // Added again, it goes last
+            shapesZIndex.add(shape);
+            shape.layer = this;
+            shape.order = shapeOrder++;
+            maxStrokeWidth = Math.max(maxStrokeWidth, strokeWidthOf(shape));
+
+            if (!rebuild) {
+                updateIndex(shape);
+            } else if (shape.hasBounds()) {
+                index.put(shape, shape.minLongitude, shape.minLatitude,
+                        shape.maxLongitude, shape.maxLatitude);
+            } else {
+                index.remove(shape);
+            }
+        }
+        if (rebuild) {
+            index.rebuild();
+        }
+    }
+
+    // Called with the lock of the index
+    private void removeFromIndex(final List<RichShape> shapesToRemove) {
+        for (RichShape shape : shapesToRemove) {
+            Set<RichShape> shapesZIndex = shapes.get(shape.getZIndex());
+            if (shapesZIndex != null && shapesZIndex.remove(shape) && shapesZIndex.isEmpty()) {
+                shapes.remove(shape.getZIndex());
+            }
+            if (shape.layer == this) {
+                shape.layer = null;
+            }
+        }
+        index.removeAll(shapesToRemove);
+    }
+
+    /**
+     * Marks the area covered by the shape to be drawn again on the next refresh,
+     * e.g. after changing its style.
+     */
+    public void invalidate(final RichShape shape) {
+        if (shape != null && shape.hasBounds()) {
+            invalidate(shape.getBounds(), strokeWidthOf(shape));
+        }
+    }
+
+    private void invalidate(final LatLngBounds bounds, final float strokeWidth) {
+        synchronized (dirtyLock) {
+            if (dirty == null) {
+                dirty = new DirtyRegion();
+            }
+            dirty.include(bounds.southwest.latitude, bounds.southwest.longitude,
+                    bounds.northeast.latitude, bounds.northeast.longitude, strokeWidth);
+        }
+    }
+
+    private void invalidate(final List<RichShape> changed) {
+        synchronized (dirtyLock) {
+            for (RichShape shape : changed) {
+                if (shape.hasBounds()) {
+                    if (dirty == null) {
+                        dirty = new DirtyRegion();
+                    }
+                    dirty.include(shape.minLatitude, shape.minLongitude,
+                            shape.maxLatitude, shape.maxLongitude, strokeWidthOf(shape));
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks the whole layer to be drawn again on the next refresh.
+     */
+    private void invalidateAll() {
+        synchronized (dirtyLock) {
+            if (dirty == null) {
+                dirty = new DirtyRegion();
+            }
+            dirty.include(-RichUtils.MAX_LATITUDE, -180, RichUtils.MAX_LATITUDE, 180,
+                    maxStrokeWidth);
+        }
+    }
+
+    private void invalidate(final DirtyRegion region) {
+        if (region != null) {
+            synchronized (dirtyLock) {
+                if (dirty == null) {
+                    dirty = new DirtyRegion();
+                }
+                dirty.include(region.minLatitude, region.minLongitude,
+                        region.maxLatitude, region.maxLongitude, region.strokeWidth);
+            }
+        }
+    }
+
+    private DirtyRegion takeDirtyRegion() {
+        synchronized (dirtyLock) {
+            DirtyRegion region = dirty;
+            dirty = null;
+            return region;
+        }
+    }
+
+    /**
+     * Returns all the shapes of the layer in drawing order.
+     */
+    public List<RichShape> getShapes() {
+        List<RichShape> result = new ArrayList<>();
+        synchronized (index) {
+            applyUpdates();
+            for (Set<RichShape> shapesZIndex : shapes.values()) {
+                result.addAll(shapesZIndex);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the shapes whose bounds intersect the given bounds, in drawing order
+     * (ascending zIndex and, within the same zIndex, in the order they were added).
+     */
+    public List<RichShape> shapesIn(final LatLngBounds bounds) {
+        List<RichShape> result = new ArrayList<>();
+        if (bounds != null) {
+            synchronized (index) {
+                applyUpdates();
+                index.search(bounds.southwest.longitude, bounds.southwest.latitude,
+                        bounds.northeast.longitude, bounds.northeast.latitude, result);
+            }
+            Collections.sort(result, DRAWING_ORDER);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the topmost shape (highest zIndex and, within it, the last added) drawn at
+     * the given position, or null if there is none. tolerance is the distance in pixels
+     * allowed around the position, e.g. the size of a fingertip. The shapes are tested
+     * against their full geometry and stroke width.
+     */
+    public RichShape pick(final LatLng position, final float tolerance) {
+        if (position == null) {
+            throw new IllegalArgumentException("Position cannot be null");
+        }
+
+        return pick(RichUtils.toWorldX(position.longitude), RichUtils.toWorldY(position.latitude),
+                viewProjection(), tolerance);
+    }
+
+    /**
+     * Same as pick(LatLng, float) for a point of the view, in pixels (e.g. a tap). The point
+     * is located with the projection of the map, which takes its padding into account, so
+     * it must be called from the main thread.
+     */
+    public RichShape pick(final Point point, final float tolerance) {
+        if (point == null) {
+            throw new IllegalArgumentException("Point cannot be null");
+        }
+
+        return pick(map.getProjection().fromScreenLocation(point), tolerance);
+    }
+
+    private RichShape pick(final double x, final double y,
+                           final RichMercatorProjection projection, final float tolerance) {
+        if (tolerance < 0) {
+            throw new IllegalArgumentException("Tolerance cannot be negative");
+        }
+        if (map.getCameraPosition().zoom < minZoom) {
+            return null; // The layer is not drawn
+        }
+
+        // The bounds in the index don't include the strokes
+        double scale = projection.getScale();
+        double reach = (tolerance + maxStrokeWidth / 2 + 1) / scale;
+        List<RichShape> candidates = new ArrayList<>();
+        synchronized (index) {
+            applyUpdates();
+            index.search(RichUtils.toLongitude(x - reach), RichUtils.toLatitude(y + reach),
+                    RichUtils.toLongitude(x + reach), RichUtils.toLatitude(y - reach), candidates);
+        }
+
+        Collections.sort(candidates, DRAWING_ORDER);
+        for (int i = candidates.size() - 1; i >= 0; i--) {
+            RichShape shape = candidates.get(i);
+            if (shape.hits(x, y, scale, tolerance)) {
+                return shape;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Projection of the view for the current camera position.
+     */
+    private RichMercatorProjection viewProjection() {
+        return RichMercatorProjection.fromCamera(map.getCameraPosition(),
+                view.getWidth(), view.getHeight(),
+                view.getResources().getDisplayMetrics().density);
+    }
+
+    void onShapeChanged(final RichShape shape, final LatLngBounds changed) {
+        updates.add(new ShapeUpdate(Operation.CHANGE, Collections.singletonList(shape)));
+        version.incrementAndGet();
+        if (changed != null) {
+            invalidate(changed, strokeWidthOf(shape));
+        }
+    }
+
+    /**
+     * Called when an attribute of the shape changed, its geometry and bounds are the same.
+     */
+    void onShapeRestyled(final RichShape shape) {
+        version.incrementAndGet();
+        if (style != null && shape.hasBounds()) {
+            invalidate(shape.getBounds(), strokeWidthOf(shape));
+        }
+    }
+
+    /**
+     * Width of the widest stroke the shape can be drawn with.
+     */
+    private float strokeWidthOf(final RichShape shape) {
+        RichStyle currentStyle = style;
+        return currentStyle != null
+                ? Math.max(shape.strokeWidth, currentStyle.getMaxStrokeWidth())
+                : shape.strokeWidth;
+    }
+
+    /**
+     * Sets the data-driven style of the shapes (null draws them with their own style)
+     * and marks the whole layer to be drawn again on the next refresh.
+     */
+    public void setStyle(final RichStyle newStyle) {
+        style = newStyle;
+        if (newStyle != null) {
+            maxStrokeWidth = Math.max(maxStrokeWidth, newStyle.getMaxStrokeWidth());
+        }
+        version.incrementAndGet();
+        invalidateAll();
+    }
+
+    public RichStyle getStyle() {
+        return style;
+    }
+
+    /**
+     * Returns the zoom level the projection draws the map at.
+     */
+    double getZoom(final RichProjection projection) {
+        return Math.log(projection.getScale() / zoomScale) / Math.log(2);
+    }
+
+    /**
+     * Version of the layer content, incremented each time a shape is added, removed or changed.
+     */
+    long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Returns the bounds of the shapes needed to draw the given rectangle of the projection.
+     * With clusters they cover the whole grid cells whose clusters reach the rectangle, as
+     * a cluster depends on all the shapes of its cell.
+     */
+    LatLngBounds getDrawnBounds(final RichMercatorProjection projection,
+                                final double left, final double top,
+                                final double right, final double bottom) {
+        if (isClustered()) {
+            return levelOfDetail.getCellBounds(projection, left, top, right, bottom);
+        }
+        return projection.getBounds(left, top, right, bottom);
+    }
+
+    // Called with the lock of the index
+    private void updateIndex(final RichShape shape) {
+        if (!shape.hasBounds()) {
+            index.remove(shape);
+        } else {
+            index.insert(shape, shape.minLongitude, shape.minLatitude,
+                    shape.maxLongitude, shape.maxLatitude);
+        }
+    }
+
+    private void refreshTiles() {
+        long currentVersion = version.get();
+        if (tileOverlay == null) {
+            tileOverlay = map.addTileOverlay(new TileOverlayOptions()
+                    .tileProvider(tileProvider)
+                    .zIndex(zIndex));
+        } else if (currentVersion != tileVersion) {
+            // Only the tiles of the new version are rendered again
+            tileProvider.clearCache();
+            tileOverlay.clearTileCache();
+        }
+        tileVersion = currentVersion;
+    }
+
+    private boolean isStale(final RenderRequest request) {
+        return request.generation != renderGeneration.get();
+    }
+
+    // Runs on the caller thread or on the executor.
+    // Returns null if the request became stale or there is nothing new to show
+    private Frame render(final RenderRequest request) {
+        synchronized (renderLock) {
+            if (isStale(request)) {
+                invalidate(request.dirty);
+                return null;
+            }
+
+            Frame last = lastFrame;
+            boolean lowQuality = last != null && last.degradation > 0 && request.idle;
+            if (last != null && !lowQuality && last.covers(request, zoomThreshold)) {
+                // The last frame already has this area, only the changes are drawn
+                if (request.dirty == null) {
+                    // It may have been rendered for a request that became stale
+                    return isShown(last) ? null : last;
+                }
+
+                int width = last.width;
+                int height = last.height;
+                Rect dirtyRect = request.dirty.toScreen(last.projection, width, height,
+                        getDrawnMargin(request.dirty.strokeWidth));
+                if (dirtyRect.isEmpty()) {
+                    return isShown(last) ? null : last;
+                }
+                if (!isClustered() && dirtyRect.width() * dirtyRect.height()
+                        < MAXIMUM_DIRTY_FRACTION * width * height) {
+                    return renderDirty(request, last, dirtyRect);
+                }
+            }
+
+            // Render into a back buffer, the last frame may still be shown
+            long start = System.nanoTime();
+            float resolution = renderScale
+                    * (budget != null ? budget.getResolution(request.degradation) : 1);
+            Frame frame = new Frame(request, resolution);
+            frame.bitmap = bitmapPool.acquire(frame.bitmapWidth, frame.bitmapHeight,
+                    bitmapConfig);
+            // The spatial index has already culled the shapes outside the visible region
+            List<RichShape> visibleShapes = shapesIn(frame.projection.getVisibleBounds());
+            boolean drawn = rasterPool != null && !isClustered() && !visibleShapes.isEmpty()
+                    ? drawParallel(frame.bitmap, frame, visibleShapes, request)
+                    : drawInto(frame.bitmap, 0, frame.bitmapHeight, frame, visibleShapes,
+                    request);
+            if (!drawn) {
+                bitmapPool.release(frame.bitmap);
+                invalidate(request.dirty);
+                return null;
+            }
+
+            frame.image = BitmapDescriptorFactory.fromBitmap(frame.bitmap);
+            if (budget != null) {
+                budget.record(System.nanoTime() - start, frame.degradation);
+            }
+            setLastFrame(frame);
+            return frame;
+        }
+    }
+
+    private boolean isShown(final Frame frame) {
+        synchronized (frameLock) {
+            return frontFrame == frame;
+        }
+    }
+
+    // Called with the render lock
+    private void setLastFrame(final Frame frame) {
+        synchronized (frameLock) {
+            if (lastFrame != null && lastFrame != frontFrame) {
+                bitmapPool.release(lastFrame.bitmap);
+            }
+            lastFrame = frame;
+        }
+    }
+
+    // Runs on the main thread
+    private void setFrontFrame(final Frame frame) {
+        synchronized (frameLock) {
+            if (frontFrame != null && frontFrame != lastFrame && frontFrame != frame) {
+                bitmapPool.release(frontFrame.bitmap);
+            }
+            frontFrame = frame;
+        }
+    }
+
+    /**
+     * Clusters depend on all the shapes of their cell, so they can't be drawn in parts.
+     */
+    private boolean isClustered() {
+        return levelOfDetail != null && levelOfDetail.isClustered();
+    }
+
+    /**
+     * Draws the shapes of the frame into the rows from top to bottom of the Bitmap,
+     * which has its first row at top. Returns false if the request became stale.
+     */
+    private boolean drawInto(final Bitmap bitmap, final int top, final int bottom,
+                             final Frame frame, final List<RichShape> shapesToDraw,
+                             final RenderRequest request) {
+        RichRenderer renderer = RichCanvasRenderer.obtain(bitmap);
+        int saveCount = renderer.save();
+        try {
+            renderer.clipRect(0, 0, frame.bitmapWidth, bottom - top);
+            renderer.translate(0, -top);
+            renderer.scale(frame.resolution);
+            return draw(renderer, frame.projection, shapesToDraw, request, frame.degradation);
+        } finally {
+            renderer.restoreToCount(saveCount);
+        }
+    }
+
+    /**
+     * Draws the shapes with the raster pool. Each zIndex band (consecutive zIndex values)
+     * is drawn into its own Bitmap, so the holes of its polygons only clear that band,
+     * and the bands are composited in order. With a single zIndex, the frame is split into
+     * horizontal stripes instead.
+     */
+    private boolean drawParallel(final Bitmap bitmap, final Frame frame,
+                                 final List<RichShape> visibleShapes,
+                                 final RenderRequest request) {
+        final List<List<RichShape>> bands = splitBands(visibleShapes, parallelism);
+        int parts = bands.size() > 1 ? bands.size() : Math.min(parallelism, frame.bitmapHeight);
+        final Bitmap[] bitmaps = new Bitmap[parts];
+        final int[] tops = new int[parts + 1];
+        bitmaps[0] = bitmap; // The first part is drawn directly into the frame
+        for (int i = 0; i < parts; i++) {
+            tops[i + 1] = bands.size() > 1 ? 0 : frame.bitmapHeight * (i + 1) / parts;
+            if (i > 0) {
+                int height = bands.size() > 1 ? frame.bitmapHeight : tops[i + 1] - tops[i];
+                bitmaps[i] = bitmapPool.acquire(frame.bitmapWidth, height, bitmapConfig);
+            }
+        }
+
+        try {
+            List<Callable<Boolean>> tasks = new ArrayList<>();
+            for (int i = 0; i < parts; i++) {
+                final int part = i;
+                tasks.add(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        if (bands.size() > 1) {
+                            return drawInto(bitmaps[part], 0, frame.bitmapHeight, frame,
+                                    bands.get(part), request);
+                        }
+                        return drawStripe(bitmaps[part], tops[part], tops[part + 1], frame,
+                                visibleShapes, request);
+                    }
+                });
+            }
+            if (!invokeAll(tasks)) {
+                return false;
+            }
+
+            RichCanvasRenderer renderer = RichCanvasRenderer.obtain(bitmap);
+            for (int i = 1; i < parts; i++) {
+                renderer.drawBitmap(bitmaps[i], 0, tops[i]);
+            }
+            return true;
+        } finally {
+            for (int i = 1; i < parts; i++) {
+                bitmapPool.release(bitmaps[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns the distance in pixels around the bounds of a shape that drawing it may touch:
+     * half the stroke, one pixel of antialiasing and, with level of detail, half the dot
+     * drawn for small shapes.
+     */
+    private float getDrawnMargin(final float strokeWidth) {
+        return strokeWidth / 2 + 1
+                + (levelOfDetail != null ? levelOfDetail.getMinShapeSize() / 2 : 0);
+    }
+
+    /**
+     * Draws the shapes crossing the rows from top to bottom of the frame.
+     */
+    private boolean drawStripe(final Bitmap bitmap, final int top, final int bottom,
+                               final Frame frame, final List<RichShape> visibleShapes,
+                               final RenderRequest request) {
+        // Shapes just outside the stripe may have strokes or dots inside it
+        float margin = getDrawnMargin(maxStrokeWidth);
+        LatLngBounds stripeBounds = frame.projection.getBounds(-margin,
+                top / frame.resolution - margin, frame.width + margin,
+                bottom / frame.resolution + margin);
+        // Filtered from the shapes of the frame, so all the stripes draw the same snapshot
+        List<RichShape> stripeShapes = new ArrayList<>();
+        for (RichShape shape : visibleShapes) {
+            if (shape.boundsIntersects(stripeBounds)) {
+                stripeShapes.add(shape);
+            }
+        }
+        return drawInto(bitmap, top, bottom, frame, stripeShapes, request);
+    }
+
+    /**
+     * Splits the shapes (in drawing order) into at most count bands of whole zIndex values,
+     * with about the same number of vertices each.
+     */
+    private static List<List<RichShape>> splitBands(final List<RichShape> shapesToSplit,
+                                                    final int count) {
+        long total = 0;
+        for (RichShape shape : shapesToSplit) {
+            total += shape.getVertexCount() + 1;
+        }
+
+        List<List<RichShape>> bands = new ArrayList<>();
+        int start = 0;
+        long bandWeight = 0;
+        for (int i = 0; i < shapesToSplit.size(); i++) {
+            bandWeight += shapesToSplit.get(i).getVertexCount() + 1;
+            boolean last = i == shapesToSplit.size() - 1;
+            if (last || (shapesToSplit.get(i + 1).getZIndex() != shapesToSplit.get(i).getZIndex()
+                    && bandWeight * count >= total && bands.size() < count - 1)) {
+                bands.add(shapesToSplit.subList(start, i + 1));
+                start = i + 1;
+                bandWeight = 0;
+            }
+        }
+        return bands;
+    }
+
+    /**
+     * Runs the tasks in the raster pool. Returns false if any of them became stale.
+     */
+    private boolean invokeAll(final List<Callable<Boolean>> tasks) {
+        boolean drawn = true;
+        try {
+            for (Future<Boolean> result : rasterPool.invokeAll(tasks)) {
+                drawn &= result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        return drawn;
+    }
+
+    /**
+     * Draws the shapes in order, the ones too small for the level of detail as dots.
+     * Returns false if the request (if any) became stale before drawing all of them.
+     */
+    boolean draw(final RichRenderer renderer, final RichProjection projection,
+                 final List<RichShape> shapesToDraw, final RenderRequest request,
+                 final int degradation) {
+        if (budget != null) {
+            budget.apply(renderer, degradation);
+        } else {
+            renderer.setQuality(true, true, 0);
+        }
+
+        // The style is evaluated for all the shapes at once, before drawing any of them
+        RichStyle currentStyle = style;
+        if (currentStyle != null) {
+            currentStyle.apply(shapesToDraw, getZoom(projection));
+        }
+
+        RichLevelOfDetail.Batch batch = levelOfDetail != null
+                ? levelOfDetail.batch(renderer, projection) : null;
+        for (RichShape shape : shapesToDraw) {
+            if (request != null && isStale(request)) {
+                return false;
+            }
+            if (batch != null) {
+                if (batch.add(shape)) {
+                    continue;
+                }
+                batch.flushBelow(shape.getZIndex());
+            }
+            shape.doDraw(renderer, projection);
+        }
+        if (batch != null) {
+            batch.flush();
+        }
+        return true;
+    }
+
+    /**
+     * Draws again only the dirty rectangle of the last frame, over a copy of it.
+     */
+    private Frame renderDirty(final RenderRequest request, final Frame last,
+                              final Rect dirtyRect) {
+        // Shapes just outside the rectangle may have strokes or dots inside it
+        float margin = getDrawnMargin(maxStrokeWidth);
+        List<RichShape> dirtyShapes = shapesIn(last.projection.getBounds(
+                dirtyRect.left - margin, dirtyRect.top - margin,
+                dirtyRect.right + margin, dirtyRect.bottom + margin));
+
+        Frame frame = new Frame(last);
+        frame.bitmap = bitmapPool.acquire(frame.bitmapWidth, frame.bitmapHeight, bitmapConfig);
+        RichCanvasRenderer renderer = RichCanvasRenderer.obtain(frame.bitmap);
+        renderer.drawBitmap(last.bitmap, 0, 0);
+        int saveCount = renderer.save();
+        try {
+            // The dirty rectangle is in the coordinates of the projection, not of the Bitmap
+            renderer.scale(frame.resolution);
+            renderer.clipRect(dirtyRect.left, dirtyRect.top, dirtyRect.right, dirtyRect.bottom);
+            renderer.clear();
+            if (!draw(renderer, frame.projection, dirtyShapes, request, frame.degradation)) {
+                // The rectangle is half drawn, so it stays dirty
+                bitmapPool.release(frame.bitmap);
+                invalidate(request.dirty);
+                return null;
+            }
+        } finally {
+            renderer.restoreToCount(saveCount);
+        }
+
+        frame.image = BitmapDescriptorFactory.fromBitmap(frame.bitmap);
+        setLastFrame(frame);
+        return frame;
+    }
+
+    /**
+     * Removes the layer from the map and frees its Bitmaps and the background thread
+     * owned by the layer (if any). Call it when the map is destroyed.
+     */
+    public void release() {
+        renderGeneration.incrementAndGet();
+        if (overlay != null) {
+            overlay.remove();
+            overlay = null;
+        }
+        if (tileOverlay != null) {
+            tileOverlay.remove();
+            tileOverlay = null;
+        }
+        if (tileProvider != null) {
+            tileProvider.release();
+        }
+
+        synchronized (renderLock) {
+            synchronized (frameLock) {
+                lastFrame = null;
+                frontFrame = null;
+            }
+            bitmapPool.clear();
+            mainHandler.removeCallbacks(idleRefresh);
+        }
+
+        if (ownsExecutor && executor instanceof ExecutorService) {
+            ((ExecutorService) executor).shutdown();
+            executor = null;
+        }
+        if (rasterPool != null) {
+            rasterPool.shutdown();
+            rasterPool = null;
+        }
+    }
+
+    // Runs on the main thread
+    private void showFrame(final Frame frame) {
+        if (overlay == null) {
+            GroundOverlayOptions background = new GroundOverlayOptions()
+                    .image(frame.image)
+                    .position(frame.target, frame.mapWidth)
+                    .bearing(frame.bearing)
+                    .zIndex(zIndex);
+            overlay = map.addGroundOverlay(background);
+        } else {
+            overlay.setImage(frame.image);
+            overlay.setPosition(frame.target);
+            overlay.setDimensions(frame.mapWidth);
+            overlay.setBearing(frame.bearing);
+        }
+        setFrontFrame(frame);
+    }
+
+    /**
+     * Snapshot of everything needed to render a frame, taken on the main thread.
+     */
+    private static class RenderRequest {
+        final long generation;
+        final CameraPosition cameraPosition;
+        final int viewWidth;
+        final int viewHeight;
+        final int overscan;
+        final float density;
+        final float viewMapWidth; // In meters
+        final DirtyRegion dirty; // Changes since the previous request, null if none
+        final int degradation; // Level of the render budget
+        final boolean idle; // Camera stopped, the frame must have full quality
+
+        RenderRequest(final long generation, final CameraPosition cameraPosition,
+                      final Projection mapProjection, final int viewWidth, final int viewHeight,
+                      final int overscan, final float density, final DirtyRegion dirty,
+                      final int degradation, final boolean idle) {
+            this.generation = generation;
+            this.cameraPosition = cameraPosition;
+            this.viewWidth = viewWidth;
+            this.viewHeight = viewHeight;
+            this.overscan = overscan;
+            this.density = density;
+            this.dirty = dirty;
+            this.degradation = degradation;
+            this.idle = idle;
+            this.viewMapWidth = (float) SphericalUtil.computeDistanceBetween(
+                    mapProjection.getVisibleRegion().nearLeft,
+                    mapProjection.getVisibleRegion().nearRight);
+        }
+    }
+
+    /**
+     * Rendered Bitmap and its placement on the map. Its projection is centered on the
+     * camera target and includes the overscan border around the view. The Bitmap can have
+     * a lower resolution than the projection, the map stretches it.
+     */
+    private static class Frame {
+        final CameraPosition cameraPosition;
+        final RichMercatorProjection projection;
+        final int width;
+        final int height;
+        final float resolution;
+        final int bitmapWidth;
+        final int bitmapHeight;
+        final int degradation;
+        final LatLng target;
+        final float bearing;
+        final float mapWidth; // In meters
+        Bitmap bitmap;
+        BitmapDescriptor image;
+
+        Frame(final RenderRequest request, final float resolution) {
+            this.cameraPosition = request.cameraPosition;
+            this.width = request.viewWidth + request.overscan * 2;
+            this.height = request.viewHeight + request.overscan * 2;
+            this.resolution = resolution;
+            this.bitmapWidth = Math.max(1, Math.round(width * resolution));
+            this.bitmapHeight = Math.max(1, Math.round(height * resolution));
+            this.degradation = request.degradation;
+            // Projecting the shapes only needs the camera position, not the map
+            this.projection = RichMercatorProjection.fromCamera(cameraPosition,
+                    width, height, request.density);
+            this.target = cameraPosition.target;
+            this.bearing = cameraPosition.bearing;
+            this.mapWidth = request.viewMapWidth * width / request.viewWidth;
+        }
+
+        /**
+         * Frame with the same placement as the given one, for a new Bitmap.
+         */
+        Frame(final Frame frame) {
+            this.cameraPosition = frame.cameraPosition;
+            this.width = frame.width;
+            this.height = frame.height;
+            this.resolution = frame.resolution;
+            this.bitmapWidth = frame.bitmapWidth;
+            this.bitmapHeight = frame.bitmapHeight;
+            this.degradation = frame.degradation;
+            this.projection = frame.projection;
+            this.target = frame.target;
+            this.bearing = frame.bearing;
+            this.mapWidth = frame.mapWidth;
+        }
+
+        /**
+         * Returns true if the view of the request lies inside this frame and the zoom
+         * didn't change more than zoomThreshold, so the frame can still be shown.
+         */
+        boolean covers(final RenderRequest request, final float zoomThreshold) {
+            if (Math.abs(request.cameraPosition.zoom - cameraPosition.zoom) > zoomThreshold) {
+                return false;
+            }
+
+            RichMercatorProjection view = RichMercatorProjection.fromCamera(
+                    request.cameraPosition, request.viewWidth, request.viewHeight,
+                    request.density);
+            double[] corners = new double[]{
+                    view.toWorldX(0, 0), view.toWorldY(0, 0),
+                    view.toWorldX(request.viewWidth, 0), view.toWorldY(request.viewWidth, 0),
+                    view.toWorldX(request.viewWidth, request.viewHeight),
+                    view.toWorldY(request.viewWidth, request.viewHeight),
+                    view.toWorldX(0, request.viewHeight), view.toWorldY(0, request.viewHeight)};
+            float[] screen = new float[8];
+            projection.toScreenLocations(corners, 4, screen);
+
+            // Half a pixel of tolerance for rounding errors
+            for (int i = 0; i < screen.length; i += 2) {
+                if (screen[i] < -0.5f || screen[i] > width + 0.5f
+                        || screen[i + 1] < -0.5f || screen[i + 1] > height + 0.5f) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Geographic area changed since the last frame, plus the stroke width drawn around it.
+     */
+    private static class DirtyRegion {
+        double minLatitude = Double.MAX_VALUE;
+        double minLongitude = Double.MAX_VALUE;
+        double maxLatitude = -Double.MAX_VALUE;
+        double maxLongitude = -Double.MAX_VALUE;
+        float strokeWidth = 0;
+
+        void include(final double minLat, final double minLng,
+                     final double maxLat, final double maxLng, final float width) {
+            minLatitude = Math.min(minLatitude, minLat);
+            minLongitude = Math.min(minLongitude, minLng);
+            maxLatitude = Math.max(maxLatitude, maxLat);
+            maxLongitude = Math.max(maxLongitude, maxLng);
+            strokeWidth = Math.max(strokeWidth, width);
+        }
+
+        /**
+         * Returns the rectangle of the Bitmap covering the region plus margin pixels around it,
+         * empty if it's not visible.
+         */
+        Rect toScreen(final RichProjection projection, final int width, final int height,
+                      final float margin) {
+            double west = RichUtils.toWorldX(minLongitude);
+            double east = RichUtils.toWorldX(maxLongitude);
+            double north = RichUtils.toWorldY(maxLatitude);
+            double south = RichUtils.toWorldY(minLatitude);
+            float[] corners = new float[8];
+            projection.toScreenLocations(new double[]{west, north, east, north,
+                    east, south, west, south}, 4, corners);
+
+            float left = Float.MAX_VALUE;
+            float top = Float.MAX_VALUE;
+            float right = -Float.MAX_VALUE;
+            float bottom = -Float.MAX_VALUE;
+            for (int i = 0; i < corners.length; i += 2) {
+                left = Math.min(left, corners[i]);
+                top = Math.min(top, corners[i + 1]);
+                right = Math.max(right, corners[i]);
+                bottom = Math.max(bottom, corners[i + 1]);
+            }
+
+            Rect rect = new Rect((int) Math.floor(left - margin), (int) Math.floor(top - margin),
+                    (int) Math.ceil(right + margin), (int) Math.ceil(bottom + margin));
+            if (!rect.intersect(0, 0, width, height)) {
+                rect.setEmpty();
+            }
+            return rect;
+        }
+    }
+
+    private enum Operation {
+        ADD,
+        REMOVE,
+        REPLACE,
+        CHANGE
+    }
+
+    /**
+     * Transaction adding, removing, replacing or changing shapes, waiting to be applied
+     * to the index.
+     */
+    private static class ShapeUpdate {
+        final Operation operation;
+        final List<RichShape> shapes;
+
+        ShapeUpdate(final Operation operation, final List<RichShape> shapes) {
+            this.operation = operation;
+            this.shapes = shapes;
+        }
+    }
+
+    /**
+     * Ways of lowering the quality to render faster, see Builder.renderBudget.
+     */
+    public enum Degradation {
+        ANTIALIAS, // Draws without antialiasing
+        EFFECTS, // Skips MaskFilters and PathEffects
+        SIMPLIFY, // Simplifies the geometry of all the shapes
+        RESOLUTION // Renders at half resolution
+    }
+
+    public static class Builder {
+        private View view;
+        private GoogleMap map;
+        private float zIndex = 0;
+        private boolean async = false;
+        private Executor executor;
+        private Bitmap.Config bitmapConfig = Bitmap.Config.ARGB_8888;
+        private boolean tiled = false;
+        private int tileSize = 256;
+        private int overscan = 0;
+        private float zoomThreshold = 0;
+        private float minShapeSize = 0;
+        private int clusterSize = 0;
+        private Float minZoom;
+        private long renderBudget = 0;
+        private Degradation[] degradation = Degradation.values();
+        private float renderScale = 1;
+        private int parallelism = 1;
+        private RichStyle style;
+
+        public Builder(final View view, final GoogleMap map) {
+            this.view = view;
+            this.map = map;
+        }
+
+        public Builder zIndex(final float zIndex) {
+            this.zIndex = zIndex;
+            return this;
+        }
+
+        /**
+         * Kept for compatibility. The shapes are projected from the camera target, which is
+         * always drawn at the center of the layer, so the map padding doesn't need to be set.
+         */
+        @Deprecated
+        public Builder padding(final int top, final int bottom) {
+            return this;
+        }
+
+        /**
+         * Rasterizes the shapes in a background thread owned by the layer.
+         * Shapes can be added and removed from any thread, but the geometry and style of the
+         * shapes in the layer must not be modified while a refresh is being rendered.
+         */
+        public Builder async(final boolean async) {
+            this.async = async;
+            return this;
+        }
+
+        /**
+         * Rasterizes the shapes using the given Executor instead of a thread owned by the layer.
+         */
+        public Builder executor(final Executor executor) {
+            this.executor = executor;
+            this.async = executor != null;
+            return this;
+        }
+
+        /**
+         * Config of the Bitmap the layer is rendered into (ARGB_8888 by default).
+         * RGB_565 halves the memory but has no transparency, so it only suits opaque layers.
+         * ALPHA_8 quarters it but only keeps the alpha channel of the symbology.
+         */
+        public Builder bitmapConfig(final Bitmap.Config bitmapConfig) {
+            if (bitmapConfig != null) {
+                this.bitmapConfig = bitmapConfig;
+            }
+            return this;
+        }
+
+        /**
+         * Draws the layer as a TileOverlay instead of a single GroundOverlay, so panning
+         * only renders the newly exposed tiles. Padding is ignored in this mode.
+         */
+        public Builder tiled(final boolean tiled) {
+            this.tiled = tiled;
+            return this;
+        }
+
+        /**
+         * Size in pixels of the tiles rendered in tiled mode (256 by default).
+         */
+        public Builder tileSize(final int tileSize) {
+            if (tileSize <= 0) {
+                throw new IllegalArgumentException("Tile size must be positive");
+            }
+            this.tileSize = tileSize;
+            return this;
+        }
+
+        /**
+         * Extra pixels rendered around each side of the view. While the camera moves
+         * (pan or rotation) inside the rendered area, the layer is not drawn again.
+         */
+        public Builder overscan(final int overscan) {
+            if (overscan < 0) {
+                throw new IllegalArgumentException("Overscan cannot be negative");
+            }
+            this.overscan = overscan;
+            return this;
+        }
+
+        /**
+         * Zoom levels the camera can change before the layer is drawn again, in the meantime
+         * the map scales the rendered overlay (0 by default).
+         */
+        public Builder zoomThreshold(final float zoomThreshold) {
+            if (zoomThreshold < 0) {
+                throw new IllegalArgumentException("Zoom threshold cannot be negative");
+            }
+            this.zoomThreshold = zoomThreshold;
+            return this;
+        }
+
+        /**
+         * Shapes smaller than minShapeSize pixels are drawn as dots of that size, batched in
+         * a single draw call per color, instead of with their geometry. Their geometry comes
+         * back when zooming in. Enabling it also draws the layer at every zoom level.
+         */
+        public Builder levelOfDetail(final float minShapeSize) {
+            if (minShapeSize < 0) {
+                throw new IllegalArgumentException("Minimum shape size cannot be negative");
+            }
+            this.minShapeSize = minShapeSize;
+            return this;
+        }
+
+        /**
+         * Aggregates the shapes drawn as dots into clusters, one per grid cell of clusterSize
+         * pixels, labelled with the number of shapes. Requires the level of detail.
+         */
+        public Builder clusterSize(final int clusterSize) {
+            if (clusterSize < 0) {
+                throw new IllegalArgumentException("Cluster size cannot be negative");
+            }
+            this.clusterSize = clusterSize;
+            return this;
+        }
+
+        /**
+         * The layer is not drawn below this zoom level (5 by default, or 0 with level of detail).
+         */
+        public Builder minZoom(final float minZoom) {
+            this.minZoom = minZoom;
+            return this;
+        }
+
+        /**
+         * Maximum time in milliseconds to render a frame (0, the default, disables it). While
+         * frames take longer, the degradation steps are enabled one at a time. A frame with
+         * full quality is rendered once the camera stops.
+         */
+        public Builder renderBudget(final long renderBudget) {
+            if (renderBudget < 0) {
+                throw new IllegalArgumentException("Render budget cannot be negative");
+            }
+            this.renderBudget = renderBudget;
+            return this;
+        }
+
+        /**
+         * Steps enabled, in order, when frames exceed the render budget
+         * (by default all of them in declaration order).
+         */
+        public Builder degradation(final Degradation... degradation) {
+            if (degradation == null) {
+                throw new IllegalArgumentException("Degradation steps cannot be null");
+            }
+            this.degradation = degradation.clone();
+            return this;
+        }
+
+        /**
+         * Resolution of the rendered Bitmap relative to the view (1 by default). E.g. 0.5
+         * renders a quarter of the pixels, the map stretches the GroundOverlay to its size.
+         * Ignored in tiled mode.
+         */
+        public Builder renderScale(final float renderScale) {
+            if (!(renderScale > 0 && renderScale <= 1)) {
+                throw new IllegalArgumentException("Render scale must be in (0, 1]");
+            }
+            this.renderScale = renderScale;
+            return this;
+        }
+
+        /**
+         * Number of threads of a ForkJoinPool owned by the layer rasterizing each frame
+         * (1, the default, rasterizes on a single thread). Each zIndex band is drawn into its
+         * own Bitmap, so a polygon hole doesn't clear the shapes of lower bands, and those
+         * Bitmaps need memory. Requires Android 5.0, ignored before it and in tiled mode.
+         */
+        public Builder parallelism(final int parallelism) {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("Parallelism must be at least 1");
+            }
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Data-driven style overriding the style of the shapes from their attributes or
+         * the zoom level, see RichStyle.
+         */
+        public Builder style(final RichStyle style) {
+            this.style = style;
+            return this;
+        }
+
+        public RichLayer build() {
+            if (clusterSize > 0 && minShapeSize == 0) {
+                throw new IllegalStateException("Clusters require the level of detail");
+            }
+            return new RichLayer(this);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+import android.graphics.Color;
+
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Level of detail policy. Shapes whose projected bounds are smaller than minShapeSize
+ * pixels are not drawn with their geometry, but as dots (or as clusters of dots per grid
+ * cell of clusterSize pixels) batched in a single draw call per color.
+ */
+class RichLevelOfDetail {
+    private final float minShapeSize; // In pixels
+    private final int clusterSize; // In pixels, 0 draws one dot per shape
+
+    RichLevelOfDetail(final float minShapeSize, final int clusterSize) {
+        this.minShapeSize = minShapeSize;
+        this.clusterSize = clusterSize;
+    }
+
+    float getMinShapeSize() {
+        return minShapeSize;
+    }
+
+    boolean isClustered() {
+        return clusterSize > 0;
+    }
+
+    /**
+     * Returns the bounds of the grid cells whose clusters can be drawn inside the given
+     * rectangle of the projection, which must not be rotated (e.g. a tile). A cluster is
+     * drawn inside its cell, with a radius of at most half the cell.
+     */
+    LatLngBounds getCellBounds(final RichMercatorProjection projection,
+                               final double left, final double top,
+                               final double right, final double bottom) {
+        double reach = clusterSize / 2.0;
+        double cellScale = projection.getScale() / clusterSize;
+        double[] corners = new double[]{
+                Math.floor(projection.toWorldX(left - reach, top - reach) * cellScale),
+                Math.floor(projection.toWorldY(left - reach, top - reach) * cellScale),
+                Math.floor(projection.toWorldX(right + reach, bottom + reach) * cellScale) + 1,
+                Math.floor(projection.toWorldY(right + reach, bottom + reach) * cellScale) + 1};
+        for (int i = 0; i < corners.length; i++) {
+            corners[i] /= cellScale;
+        }
+
+        float[] screen = new float[4];
+        projection.toScreenLocations(corners, 2, screen);
+        return projection.getBounds(screen[0], screen[1], screen[2], screen[3]);
+    }
+
+    /**
+     * Returns a new batch of small shapes to be drawn with the renderer.
+     */
+    Batch batch(final RichRenderer renderer, final RichProjection projection) {
+        return new Batch(renderer, projection);
+    }
+
+    /**
+     * Small shapes collected while drawing a frame. They must be flushed before drawing
+     * shapes with a higher zIndex and at the end of the frame.
+     */
+    class Batch {
+        private final RichRenderer renderer;
+        private final RichProjection projection;
+        private final double scale;
+        private double[] centers = new double[64]; // World coordinates, x0, y0, x1, y1...
+        private int[] colors = new int[32];
+        private int count;
+        private int zIndex;
+
+        Batch(final RichRenderer renderer, final RichProjection projection) {
+            this.renderer = renderer;
+            this.projection = projection;
+            this.scale = projection.getScale();
+        }
+
+        /**
+         * Adds the shape to the batch if it's too small to be drawn with its geometry.
+         */
+        boolean add(final RichShape shape) {
+            if (!shape.hasBounds()) {
+                return false;
+            }
+
+            double minX = RichUtils.toWorldX(shape.minLongitude);
+            double maxX = RichUtils.toWorldX(shape.maxLongitude);
+            double minY = RichUtils.toWorldY(shape.maxLatitude);
+            double maxY = RichUtils.toWorldY(shape.minLatitude);
+            if ((maxX - minX) * scale >= minShapeSize || (maxY - minY) * scale >= minShapeSize) {
+                return false;
+            }
+
+            if (count == colors.length) {
+                centers = Arrays.copyOf(centers, centers.length * 2);
+                colors = Arrays.copyOf(colors, colors.length * 2);
+            }
+            centers[count * 2] = (minX + maxX) / 2;
+            centers[count * 2 + 1] = (minY + maxY) / 2;
+            colors[count] = shape.getDotColor();
+            count++;
+            zIndex = shape.getZIndex();
+            return true;
+        }
+
+        /**
+         * Draws the batch if it has shapes below the given zIndex.
+         */
+        void flushBelow(final int nextZIndex) {
+            if (count > 0 && zIndex < nextZIndex) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (count == 0) {
+                return;
+            }
+
+            if (clusterSize > 0) {
+                drawClusters();
+            } else {
+                float[] screen = renderer.getScreenBuffer(count);
+                projection.toScreenLocations(centers, count, screen);
+                drawDots(screen, colors, count);
+            }
+            count = 0;
+        }
+
+        private void drawClusters() {
+            // The grid is aligned to the world so the clusters don't change while panning
+            Map<Long, Integer> cells = new HashMap<>();
+            double[] clusterCenters = new double[count * 2];
+            int[] clusterColors = new int[count];
+            int[] clusterCounts = new int[count];
+            int clusterCount = 0;
+            double cellScale = scale / clusterSize;
+            for (int i = 0; i < count; i++) {
+                long cellX = (long) Math.floor(centers[i * 2] * cellScale);
+                long cellY = (long) Math.floor(centers[i * 2 + 1] * cellScale);
+                Long cell = (cellX << 32) ^ cellY;
+                Integer cluster = cells.get(cell);
+                if (cluster == null) {
+                    cluster = clusterCount++;
+                    cells.put(cell, cluster);
+                    clusterColors[cluster] = colors[i];
+                }
+                clusterCenters[cluster * 2] += centers[i * 2];
+                clusterCenters[cluster * 2 + 1] += centers[i * 2 + 1];
+                clusterCounts[cluster]++;
+            }
+            for (int i = 0; i < clusterCount; i++) {
+                clusterCenters[i * 2] /= clusterCounts[i];
+                clusterCenters[i * 2 + 1] /= clusterCounts[i];
+            }
+
+            float[] screen = renderer.getScreenBuffer(clusterCount);
+            projection.toScreenLocations(clusterCenters, clusterCount, screen);
+
+            // All the circles of the same color are drawn with a single path
+            long[] order = sortByColor(clusterColors, clusterCount);
+            for (int k = 0; k < clusterCount; k++) {
+                int i = (int) order[k];
+                renderer.addCircle(screen[i * 2], screen[i * 2 + 1], radius(clusterCounts[i]));
+                if (k == clusterCount - 1 || clusterColors[(int) order[k + 1]] != clusterColors[i]) {
+                    renderer.fillPath(clusterColors[i], true);
+                }
+            }
+
+            float textSize = clusterSize / 3f;
+            for (int i = 0; i < clusterCount; i++) {
+                if (clusterCounts[i] > 1) {
+                    renderer.drawText(String.valueOf(clusterCounts[i]), screen[i * 2],
+                            screen[i * 2 + 1] + textSize / 3, Color.WHITE, textSize);
+                }
+            }
+        }
+
+        /**
+         * The radius grows with the number of shapes, up to half the cell.
+         */
+        private float radius(final int shapeCount) {
+            float minRadius = minShapeSize / 2;
+            float maxRadius = Math.max(minRadius, clusterSize / 2f);
+            double growth = Math.min(1, Math.log10(shapeCount) / 3);
+            return (float) (minRadius + (maxRadius - minRadius) * growth);
+        }
+
+        private void drawDots(final float[] screen, final int[] dotColors, final int dotCount) {
+            // Sorted by color so each color is a single drawPoints call
+            long[] order = sortByColor(dotColors, dotCount);
+            float[] points = new float[dotCount * 2];
+            int start = 0;
+            for (int k = 0; k < dotCount; k++) {
+                int i = (int) order[k];
+                points[k * 2] = screen[i * 2];
+                points[k * 2 + 1] = screen[i * 2 + 1];
+                if (k == dotCount - 1 || dotColors[(int) order[k + 1]] != dotColors[i]) {
+                    renderer.drawPoints(points, start, k + 1 - start, dotColors[i], minShapeSize);
+                    start = k + 1;
+                }
+            }
+        }
+
+        /**
+         * Returns the indices sorted by their color (in the low 32 bits).
+         */
+        private long[] sortByColor(final int[] sortColors, final int sortCount) {
+            long[] order = new long[sortCount];
+            for (int i = 0; i < sortCount; i++) {
+                order[i] = ((long) sortColors[i] << 32) | i;
+            }
+            Arrays.sort(order, 0, sortCount);
+            return order;
+        }
+    }
+}
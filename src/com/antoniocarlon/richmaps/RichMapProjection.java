@@ -0,0 +1,74 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+import android.graphics.Point;
+
+import com.google.android.gms.maps.Projection;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.VisibleRegion;
+
+/**
+ * RichProjection backed by the Projection of a GoogleMap, taking the map padding into account.
+ * Each point is projected by the map, so RichMercatorProjection is preferred when the
+ * camera position is known.
+ */
+class RichMapProjection implements RichProjection {
+    private Projection projection;
+    private int offsetX;
+    private int offsetY;
+
+    RichMapProjection(final Projection projection,
+                      final int paddingLeft, final int paddingTop,
+                      final int paddingRight, final int paddingBottom) {
+        if (projection == null) {
+            throw new IllegalArgumentException("Projection cannot be null");
+        }
+
+        this.projection = projection;
+        this.offsetX = paddingRight / 2 - paddingLeft / 2;
+        this.offsetY = paddingBottom / 2 - paddingTop / 2;
+    }
+
+    @Override
+    public void toScreenLocations(final double[] worldCoordinates, final int count,
+                                  final float[] screenCoordinates) {
+        for (int i = 0; i < count * 2; i += 2) {
+            Point point = projection.toScreenLocation(new LatLng(
+                    RichUtils.toLatitude(worldCoordinates[i + 1]),
+                    RichUtils.toLongitude(worldCoordinates[i])));
+            screenCoordinates[i] = point.x + offsetX;
+            screenCoordinates[i + 1] = point.y + offsetY;
+        }
+    }
+
+    @Override
+    public double getScale() {
+        VisibleRegion region = projection.getVisibleRegion();
+        Point left = projection.toScreenLocation(region.nearLeft);
+        Point right = projection.toScreenLocation(region.nearRight);
+        double worldWidth = RichUtils.toWorldX(region.nearRight.longitude)
+                - RichUtils.toWorldX(region.nearLeft.longitude);
+        return Math.hypot(right.x - left.x, right.y - left.y) / Math.abs(worldWidth);
+    }
+
+    @Override
+    public LatLngBounds getVisibleBounds() {
+        return projection.getVisibleRegion().latLngBounds;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+import com.google.android.gms.maps.model.CameraPosition;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+/**
+ * RichProjection computed as a single affine transform of Web Mercator world coordinates,
+ * so projecting a point doesn't need to call the map.
+ */
+public class RichMercatorProjection implements RichProjection {
+    static final double WORLD_SIZE_DP = 256; // Width of the world at zoom 0
+    private static final double MAX_LONGITUDE = Math.nextAfter(180.0, 0); // LatLng wraps 180
+
+    private double centerX;
+    private double centerY;
+    private double scale;
+    private double cos;
+    private double sin;
+    private double screenCenterX;
+    private double screenCenterY;
+    private LatLngBounds bounds;
+
+    /**
+     * Creates the projection of a Bitmap of the given size where the world point
+     * (centerX, centerY) is drawn at its center, rotated bearing degrees clockwise.
+     * The visible bounds are extended by margin pixels around the Bitmap.
+     */
+    public RichMercatorProjection(final double centerX, final double centerY,
+                                  final double scale, final float bearing,
+                                  final int width, final int height, final int margin) {
+        this.centerX = centerX;
+        this.centerY = centerY;
+        this.scale = scale;
+        this.cos = Math.cos(Math.toRadians(bearing));
+        this.sin = Math.sin(Math.toRadians(bearing));
+        this.screenCenterX = width / 2.0;
+        this.screenCenterY = height / 2.0;
+        this.bounds = getBounds(-margin, -margin, width + margin, height + margin);
+    }
+
+    /**
+     * Creates the projection of a Bitmap of the given size centered on the camera target.
+     * density is the screen density, as the width of the world is 256dp at zoom 0.
+     */
+    public static RichMercatorProjection fromCamera(final CameraPosition cameraPosition,
+                                                    final int width, final int height,
+                                                    final float density) {
+        return new RichMercatorProjection(
+                RichUtils.toWorldX(cameraPosition.target.longitude),
+                RichUtils.toWorldY(cameraPosition.target.latitude),
+                WORLD_SIZE_DP * density * Math.pow(2, cameraPosition.zoom),
+                cameraPosition.bearing, width, height, 0);
+    }
+
+    /**
+     * Creates the projection of a map tile.
+     */
+    public static RichMercatorProjection forTile(final int x, final int y, final int zoom,
+                                                 final int tileSize, final int margin) {
+        double tiles = 1L << zoom;
+        return new RichMercatorProjection((x + 0.5) / tiles, (y + 0.5) / tiles,
+                tileSize * tiles, 0, tileSize, tileSize, margin);
+    }
+
+    @Override
+    public void toScreenLocations(final double[] worldCoordinates, final int count,
+                                  final float[] screenCoordinates) {
+        double a = cos * scale;
+        double b = sin * scale;
+        for (int i = 0; i < count * 2; i += 2) {
+            double dx = worldCoordinates[i] - centerX;
+            double dy = worldCoordinates[i + 1] - centerY;
+            screenCoordinates[i] = (float) (screenCenterX + dx * a + dy * b);
+            screenCoordinates[i + 1] = (float) (screenCenterY - dx * b + dy * a);
+        }
+    }
+
+    @Override
+    public double getScale() {
+        return scale;
+    }
+
+    @Override
+    public LatLngBounds getVisibleBounds() {
+        return bounds;
+    }
+
+    public double toWorldX(final double screenX, final double screenY) {
+        double dx = screenX - screenCenterX;
+        double dy = screenY - screenCenterY;
+        return centerX + (dx * cos - dy * sin) / scale;
+    }
+
+    public double toWorldY(final double screenX, final double screenY) {
+        double dx = screenX - screenCenterX;
+        double dy = screenY - screenCenterY;
+        return centerY + (dx * sin + dy * cos) / scale;
+    }
+
+    /**
+     * Returns the geographic bounds of the given rectangle of the Bitmap.
+     */
+    public LatLngBounds getBounds(final double left, final double top,
+                                  final double right, final double bottom) {
+        double[] corners = new double[]{left, top, right, top, right, bottom, left, bottom};
+        double minX = Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+        for (int i = 0; i < corners.length; i += 2) {
+            double worldX = toWorldX(corners[i], corners[i + 1]);
+            double worldY = toWorldY(corners[i], corners[i + 1]);
+            minX = Math.min(minX, worldX);
+            minY = Math.min(minY, worldY);
+            maxX = Math.max(maxX, worldX);
+            maxY = Math.max(maxY, worldY);
+        }
+
+        // The world Y axis points south. Shapes are drawn only once, not wrapped around the
+        // world, so the bounds are clamped to it: crossing the antimeridian (e.g. the margin
+        // of edge tiles, or frames wider than the world) would invert the longitudes
+        return new LatLngBounds(
+                new LatLng(RichUtils.toLatitude(Math.min(maxY, 1)), toBoundsLongitude(minX)),
+                new LatLng(RichUtils.toLatitude(Math.max(minY, 0)), toBoundsLongitude(maxX)));
+    }
+
+    private static double toBoundsLongitude(final double worldX) {
+        return Math.max(-180, Math.min(MAX_LONGITUDE, RichUtils.toLongitude(worldX)));
+    }
+}
@@ -1,185 +1,219 @@
-/*
- * Copyright 2016 ANTONIO CARLON
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- * http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-
-package com.antoniocarlon.richmaps;
-
-import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.MaskFilter;
-import android.graphics.Paint;
-import android.graphics.Path;
-import android.graphics.PathEffect;
-import android.graphics.Point;
-import android.graphics.PorterDuff;
-import android.graphics.PorterDuffXfermode;
-import android.graphics.Shader;
-
-import com.google.android.gms.maps.Projection;
-import com.google.android.gms.maps.model.LatLng;
-
-import java.util.ArrayList;
-import java.util.List;
-
-/**
- * Represents a polygon to be drawn using rich symbology.
- */
-public class RichPolygon extends RichPolyline {
-    private Shader fillShader;
-    private Paint.Style style = Paint.Style.FILL_AND_STROKE;
-    private Integer fillColor = Color.WHITE;
-    private List<List<RichPoint>> holes = new ArrayList<>();
-
-    RichPolygon(final int zIndex,
-                final List<RichPoint> points,
-                final List<List<RichPoint>> holes,
-                final int strokeWidth,
-                final Paint.Cap strokeCap,
-                final Paint.Join strokeJoin,
-                final PathEffect pathEffect,
-                final MaskFilter maskFilter,
-                final boolean linearGradient,
-                final Integer strokeColor,
-                final boolean antialias,
-                final boolean closed,
-                final Shader strokeShader,
-                final Shader fillShader,
-                final Paint.Style style,
-                final Integer fillColor) {
-        super(zIndex, points, strokeWidth, strokeCap, strokeJoin, pathEffect, maskFilter,
-                strokeShader, linearGradient, strokeColor, antialias, closed);
-        this.fillShader = fillShader;
-        this.style = style;
-        this.fillColor = fillColor;
-        if (holes != null) {
-            addHoles(holes);
-        }
-    }
-
-    @Override
-    public void doDraw(final Bitmap bitmap, final Projection projection,
-                       final int paddingLeft, final int paddingTop,
-                       final int paddingRight, final int paddingBottom) {
-        if (style == Paint.Style.FILL || style == Paint.Style.FILL_AND_STROKE) {
-            drawFill(bitmap, projection, points,
-                    paddingLeft, paddingTop, paddingRight, paddingBottom);
-            for (List<RichPoint> hole : holes) {
-                drawHole(bitmap, projection, hole,
-                        paddingLeft, paddingTop, paddingRight, paddingBottom);
-            }
-        }
-
-        if (style == Paint.Style.STROKE || style == Paint.Style.FILL_AND_STROKE) {
-            drawStroke(bitmap, projection, points,
-                    paddingLeft, paddingTop, paddingRight, paddingBottom);
-            for (List<RichPoint> hole : holes) {
-                drawStroke(bitmap, projection, hole,
-                        paddingLeft, paddingTop, paddingRight, paddingBottom);
-            }
-        }
-    }
-
-    public void addHoles(final List<List<RichPoint>> holes) {
-        if (holes != null) {
-            for (List<RichPoint> hole : holes) {
-                addHole(hole);
-            }
-        }
-    }
-
-    public void addHole(final List<RichPoint> hole) {
-        if (hole != null) {
-            holes.add(hole);
-        }
-    }
-
-    protected void drawFill(final Bitmap bitmap, final Projection projection,
-                            final List<RichPoint> points2Draw,
-                            final int paddingLeft, final int paddingTop,
-                            final int paddingRight, final int paddingBottom) {
-        Canvas canvas = new Canvas(bitmap);
-        Path linePath = new Path();
-        boolean firstPoint = true;
-        for (RichPoint point : points2Draw) {
-            LatLng position = point.getPosition();
-            if (position != null) {
-                Point bmpPoint = projection.toScreenLocation(position);
-                int bmpPointX = bmpPoint.x;
-                int bmpPointY = bmpPoint.y + paddingBottom / 2 - paddingTop / 2;
-
-                if (firstPoint) {
-                    linePath.moveTo(bmpPointX, bmpPointY);
-                    firstPoint = false;
-                } else {
-                    linePath.lineTo(bmpPointX, bmpPointY);
-                }
-            }
-        }
-
-        Paint paint = getDefaultFillPaint();
-        if (fillShader != null) {
-            paint.setShader(fillShader);
-        }
-        canvas.drawPath(linePath, paint);
-    }
-
-    protected void drawHole(final Bitmap bitmap, final Projection projection,
-                            final List<RichPoint> points2Draw,
-                            final int paddingLeft, final int paddingTop,
-                            final int paddingRight, final int paddingBottom) {
-        Canvas canvas = new Canvas(bitmap);
-        Path linePath = new Path();
-        boolean firstPoint = true;
-        for (RichPoint point : points2Draw) {
-            LatLng position = point.getPosition();
-            if (position != null) {
-                Point bmpPoint = projection.toScreenLocation(position);
-                int bmpPointX = bmpPoint.x;
-                int bmpPointY = bmpPoint.y + paddingBottom / 2 - paddingTop / 2;
-
-                if (firstPoint) {
-                    linePath.moveTo(bmpPointX, bmpPointY);
-                    firstPoint = false;
-                } else {
-                    linePath.lineTo(bmpPointX, bmpPointY);
-                }
-            }
-        }
-
-        Paint paint = getDefaultHolePaint();
-        canvas.drawPath(linePath, paint);
-    }
-
-    private Paint getDefaultFillPaint() {
-        Paint paint = new Paint();
-
-        paint.setStyle(Paint.Style.FILL);
-        paint.setColor(fillColor);
-        paint.setAntiAlias(antialias);
-
-        return paint;
-    }
-
-    private Paint getDefaultHolePaint() {
-        Paint paint = new Paint();
-
-        paint.setAlpha(0);
-        paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_IN));
-        paint.setAntiAlias(antialias);
-
-        return paint;
-    }
-}
\ No newline at end of file
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+import android.graphics.Color;
+import android.graphics.MaskFilter;
+import android.graphics.PathEffect;
+import android.graphics.Shader;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Represents a polygon to be drawn using rich symbology.
+ */
+public class RichPolygon extends RichPolyline {
+    protected Shader fillShader;
+    protected RichPaint.Style style = RichPaint.Style.FILL_AND_STROKE;
+    protected Integer fillColor = Color.WHITE;
+    protected List<RichVertices> holes = new ArrayList<>();
+
+    RichPolygon(final int zIndex,
+                final List<RichPoint> points,
+                final List<List<RichPoint>> holes,
+                final int strokeWidth,
+                final RichPaint.Cap strokeCap,
+                final RichPaint.Join strokeJoin,
+                final PathEffect pathEffect,
+                final MaskFilter maskFilter,
+                final boolean linearGradient,
+                final Integer strokeColor,
+                final boolean antialias,
+                final boolean closed,
+                final float simplifyTolerance,
+                final Shader strokeShader,
+                final Shader fillShader,
+                final RichPaint.Style style,
+                final Integer fillColor) {
+        super(zIndex, points, strokeWidth, strokeCap, strokeJoin, pathEffect, maskFilter,
+                strokeShader, linearGradient, strokeColor, antialias, closed, simplifyTolerance);
+        this.fillShader = fillShader;
+        this.style = style;
+        this.fillColor = fillColor;
+        if (holes != null) {
+            addHoles(holes);
+        }
+    }
+
+    @Override
+    public void doDraw(final RichRenderer renderer, final RichProjection projection) {
+        if (style == RichPaint.Style.FILL || style == RichPaint.Style.FILL_AND_STROKE) {
+            drawFill(renderer, projection, vertices);
+            for (RichVertices hole : holes) {
+                drawHole(renderer, projection, hole);
+            }
+        }
+
+        if (style == RichPaint.Style.STROKE || style == RichPaint.Style.FILL_AND_STROKE) {
+            drawStroke(renderer, projection, vertices);
+            for (RichVertices hole : holes) {
+                drawStroke(renderer, projection, hole);
+            }
+        }
+    }
+
+    public void addHoles(final List<List<RichPoint>> holes) {
+        if (holes != null) {
+            for (List<RichPoint> hole : holes) {
+                addHole(hole);
+            }
+        }
+    }
+
+    public void addHole(final List<RichPoint> hole) {
+        if (hole != null) {
+            RichVertices holeVertices = new RichVertices();
+            for (RichPoint point : hole) {
+                if (point != null) {
+                    if (point.getColor() == null) {
+                        point.color(strokeColor);
+                    }
+                    LatLng position = point.getPosition();
+                    if (position != null) {
+                        holeVertices.add(position.latitude, position.longitude,
+                                getColor(point.getColor()));
+                        includeInBounds(position.latitude, position.longitude);
+                    } else {
+                        holeVertices.add(Double.NaN, Double.NaN, getColor(point.getColor()));
+                    }
+                }
+            }
+            holes.add(holeVertices);
+            notifyChanged();
+        }
+    }
+
+    /**
+     * Adds a hole whose points are stored in parallel arrays. The points get the stroke color.
+     */
+    public void addHole(final double[] latitudes, final double[] longitudes) {
+        checkArrays(latitudes, longitudes, null);
+        addHole(latitudes, longitudes, 0, latitudes.length);
+    }
+
+    /**
+     * Adds a hole with count points stored in parallel arrays, starting at offset.
+     */
+    public void addHole(final double[] latitudes, final double[] longitudes,
+                        final int offset, final int count) {
+        checkArrays(latitudes, longitudes, null);
+        checkRange(latitudes, offset, count);
+        RichVertices holeVertices = new RichVertices();
+        holeVertices.add(latitudes, longitudes, null, getColor(strokeColor), offset, count);
+        for (int i = 0; i < holeVertices.size(); i++) {
+            if (holeVertices.hasPosition(i)) {
+                includeInBounds(holeVertices.getLatitude(i), holeVertices.getLongitude(i));
+            }
+        }
+        holes.add(holeVertices);
+        notifyChanged();
+    }
+
+    @Override
+    protected boolean hits(final double x, final double y, final double scale,
+                           final float tolerance) {
+        boolean stroked = style != RichPaint.Style.FILL;
+        double distance = (tolerance + (stroked ? getDrawnStrokeWidth() / 2f : 0)) / scale;
+        if (isNear(vertices, x, y, true, distance)) {
+            return true;
+        }
+        for (RichVertices hole : holes) {
+            if (isNear(hole, x, y, true, distance)) {
+                return true;
+            }
+        }
+
+        if (style == RichPaint.Style.STROKE || !vertices.contains(x, y)) {
+            return false;
+        }
+        for (RichVertices hole : holes) {
+            if (hole.contains(x, y)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected int getDotColor() {
+        RichStyle.Result result = getLastStyle();
+        if (style != RichPaint.Style.STROKE && result != null && result.fillColor != null) {
+            return result.fillColor;
+        }
+        if (style != RichPaint.Style.STROKE && fillColor != null) {
+            return fillColor;
+        }
+        return super.getDotColor();
+    }
+
+    protected void drawFill(final RichRenderer renderer, final RichProjection projection,
+                            final RichVertices vertices2Draw) {
+        createPath(renderer, projection, vertices2Draw);
+        RichStyle.Result result = getStyle(projection);
+        if (result != null && result.fillColor != null) {
+            renderer.fillPath(result.fillColor, antialias);
+        } else {
+            fillPath(renderer, fillColor, fillShader);
+        }
+    }
+
+    protected void drawHole(final RichRenderer renderer, final RichProjection projection,
+                            final RichVertices vertices2Draw) {
+        createPath(renderer, projection, vertices2Draw);
+        renderer.erasePath(antialias);
+    }
+
+    /**
+     * Fills the current path with the color, or with the shader if it's not null and the
+     * renderer draws into a Canvas.
+     */
+    private void fillPath(final RichRenderer renderer, final int color, final Shader shader) {
+        if (shader != null && renderer instanceof RichCanvasRenderer) {
+            ((RichCanvasRenderer) renderer).fillPath(color, shader, antialias);
+        } else {
+            renderer.fillPath(color, antialias);
+        }
+    }
+
+    private void createPath(final RichRenderer renderer, final RichProjection projection,
+                            final RichVertices vertices2Draw) {
+        float[] screen = project(renderer, projection, vertices2Draw);
+        int[] indices = select(renderer, projection, vertices2Draw);
+        boolean firstPoint = true;
+        for (int i : indices) {
+            if (firstPoint) {
+                renderer.moveTo(screen[i * 2], screen[i * 2 + 1]);
+                firstPoint = false;
+            } else {
+                renderer.lineTo(screen[i * 2], screen[i * 2 + 1]);
+            }
+        }
+    }
+}
@@ -1,124 +1,182 @@
-/*
- * Copyright 2016 ANTONIO CARLON
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- * http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-
-package com.antoniocarlon.richmaps;
-
-import android.graphics.Color;
-import android.graphics.MaskFilter;
-import android.graphics.Paint;
-import android.graphics.PathEffect;
-import android.graphics.Shader;
-
-import java.util.ArrayList;
-import java.util.List;
-
-/**
- * Builder for RichPolyline.
- */
-public class RichPolylineOptions {
-    private List<RichPoint> points = new ArrayList<>();
-    private int zIndex = 0;
-    private int strokeWidth = 1;
-    private Paint.Cap strokeCap = Paint.Cap.ROUND;
-    private Paint.Join strokeJoin = Paint.Join.MITER;
-    private PathEffect pathEffect;
-    private MaskFilter maskFilter;
-    private Shader strokeShader;
-    private boolean linearGradient = true;
-    private Integer strokeColor = Color.BLACK;
-    private boolean antialias = true;
-    private boolean closed = false;
-
-    public RichPolylineOptions(final List<RichPoint> newPoints) {
-        add(newPoints);
-    }
-
-    public RichPolylineOptions add(final RichPoint newPoint) {
-        if (newPoint != null) {
-            points.add(newPoint);
-        }
-        return this;
-    }
-
-    public RichPolylineOptions add(final List<RichPoint> newPoints) {
-        if (newPoints != null) {
-            for (RichPoint newPoint : newPoints) {
-                add(newPoint);
-            }
-        }
-        return this;
-    }
-
-    public RichPolylineOptions zIndex(final int zIndex) {
-        this.zIndex = zIndex;
-        return this;
-    }
-
-    public RichPolylineOptions strokeWidth(final int strokeWidth) {
-        this.strokeWidth = strokeWidth;
-        return this;
-    }
-
-    public RichPolylineOptions strokeCap(final Paint.Cap strokeCap) {
-        this.strokeCap = strokeCap;
-        return this;
-    }
-
-    public RichPolylineOptions strokeJoin(final Paint.Join strokeJoin) {
-        this.strokeJoin = strokeJoin;
-        return this;
-    }
-
-    public RichPolylineOptions pathEffect(final PathEffect pathEffect) {
-        this.pathEffect = pathEffect;
-        return this;
-    }
-
-    public RichPolylineOptions maskFilter(final MaskFilter maskFilter) {
-        this.maskFilter = maskFilter;
-        return this;
-    }
-
-    public RichPolylineOptions strokeShader(final Shader strokeShader) {
-        this.strokeShader = strokeShader;
-        return this;
-    }
-
-    public RichPolylineOptions linearGradient(final boolean linearGradient) {
-        this.linearGradient = linearGradient;
-        return this;
-    }
-
-    public RichPolylineOptions strokeColor(final Integer strokeColor) {
-        this.strokeColor = strokeColor;
-        return this;
-    }
-
-    public RichPolylineOptions antialias(final boolean antialias) {
-        this.antialias = antialias;
-        return this;
-    }
-
-    public RichPolylineOptions closed(final boolean closed) {
-        this.closed = closed;
-        return this;
-    }
-
-    public RichPolyline build() {
-        return new RichPolyline(zIndex, points, strokeWidth, strokeCap, strokeJoin, pathEffect,
-                maskFilter, strokeShader, linearGradient, strokeColor, antialias, closed);
-    }
-}
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+import android.graphics.Color;
+import android.graphics.MaskFilter;
+import android.graphics.Paint;
+import android.graphics.PathEffect;
+import android.graphics.Shader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builder for RichPolyline.
+ */
+public class RichPolylineOptions {
+    private List<RichPoint> points = new ArrayList<>();
+    private double[] latitudes;
+    private double[] longitudes;
+    private int[] colors;
+    private int zIndex = 0;
+    private int strokeWidth = 1;
+    private RichPaint.Cap strokeCap = RichPaint.Cap.ROUND;
+    private RichPaint.Join strokeJoin = RichPaint.Join.MITER;
+    private PathEffect pathEffect;
+    private MaskFilter maskFilter;
+    private Shader strokeShader;
+    private boolean linearGradient = true;
+    private Integer strokeColor = Color.BLACK;
+    private boolean antialias = true;
+    private float simplifyTolerance = 0;
+    private boolean closed = false;
+
+    public RichPolylineOptions(final List<RichPoint> newPoints) {
+        add(newPoints);
+    }
+
+    /**
+     * Creates the options from points stored in parallel arrays, without allocating a
+     * RichPoint for each of them. If colors is null the points get the stroke color.
+     */
+    public RichPolylineOptions(final double[] latitudes, final double[] longitudes,
+                               final int[] colors) {
+        RichShape.checkArrays(latitudes, longitudes, colors);
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.colors = colors;
+    }
+
+    public RichPolylineOptions add(final RichPoint newPoint) {
+        if (newPoint != null) {
+            points.add(newPoint);
+        }
+        return this;
+    }
+
+    public RichPolylineOptions add(final List<RichPoint> newPoints) {
+        if (newPoints != null) {
+            for (RichPoint newPoint : newPoints) {
+                add(newPoint);
+            }
+        }
+        return this;
+    }
+
+    public RichPolylineOptions zIndex(final int zIndex) {
+        this.zIndex = zIndex;
+        return this;
+    }
+
+    public RichPolylineOptions strokeWidth(final int strokeWidth) {
+        this.strokeWidth = strokeWidth;
+        return this;
+    }
+
+    public RichPolylineOptions strokeCap(final RichPaint.Cap strokeCap) {
+        this.strokeCap = strokeCap;
+        return this;
+    }
+
+    public RichPolylineOptions strokeCap(final Paint.Cap strokeCap) {
+        return strokeCap(strokeCap != null ? RichPaint.Cap.valueOf(strokeCap.name()) : null);
+    }
+
+    public RichPolylineOptions strokeJoin(final RichPaint.Join strokeJoin) {
+        this.strokeJoin = strokeJoin;
+        return this;
+    }
+
+    public RichPolylineOptions strokeJoin(final Paint.Join strokeJoin) {
+        return strokeJoin(strokeJoin != null ? RichPaint.Join.valueOf(strokeJoin.name()) : null);
+    }
+
+    public RichPolylineOptions pathEffect(final PathEffect pathEffect) {
+        this.pathEffect = pathEffect;
+        return this;
+    }
+
+    public RichPolylineOptions maskFilter(final MaskFilter maskFilter) {
+        this.maskFilter = maskFilter;
+        return this;
+    }
+
+    public RichPolylineOptions strokeShader(final Shader strokeShader) {
+        this.strokeShader = strokeShader;
+        return this;
+    }
+
+    public RichPolylineOptions linearGradient(final boolean linearGradient) {
+        this.linearGradient = linearGradient;
+        return this;
+    }
+
+    public RichPolylineOptions strokeColor(final Integer strokeColor) {
+        this.strokeColor = strokeColor;
+        return this;
+    }
+
+    public RichPolylineOptions antialias(final boolean antialias) {
+        this.antialias = antialias;
+        return this;
+    }
+
+    public RichPolylineOptions closed(final boolean closed) {
+        this.closed = closed;
+        return this;
+    }
+
+    /**
+     * Simplifies the vertices drawn at each zoom level so no point is removed further than
+     * tolerance pixels from the drawn line (0, the default, disables the simplification).
+     */
+    public RichPolylineOptions simplify(final float tolerance) {
+        this.simplifyTolerance = tolerance;
+        return this;
+    }
+
+    public RichPolyline build() {
+        RichPolyline polyline = new RichPolyline(zIndex, null, strokeWidth, strokeCap,
+                strokeJoin, pathEffect, maskFilter, strokeShader, linearGradient, strokeColor,
+                antialias, closed, simplifyTolerance);
+        addPoints(polyline);
+        return polyline;
+    }
+
+    /**
+     * Builds a live track, whose points can be appended cheaply while it's on the map
+     * (see RichTrack). With a capacity (0 for no limit) only the last capacity points are
+     * kept. Tracks are never closed nor simplified.
+     */
+    public RichTrack buildTrack(final int capacity) {
+        RichTrack track = new RichTrack(zIndex, strokeWidth, strokeCap, strokeJoin,
+                pathEffect, maskFilter, strokeShader, linearGradient, strokeColor, antialias,
+                capacity);
+        addPoints(track);
+        return track;
+    }
+
+    private void addPoints(final RichPolyline polyline) {
+        if (latitudes != null) {
+            polyline.add(latitudes, longitudes, colors);
+        }
+        for (RichPoint point : points) {
+            polyline.add(point);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+import com.google.android.gms.maps.model.LatLngBounds;
+
+/**
+ * Converts Web Mercator world coordinates (from 0 to 1 in both axes, see RichUtils)
+ * into pixels of the Bitmap the shapes are drawn into.
+ */
+public interface RichProjection {
+    /**
+     * Projects count points given as x0, y0, x1, y1... into screenCoordinates.
+     */
+    void toScreenLocations(final double[] worldCoordinates, final int count,
+                           final float[] screenCoordinates);
+
+    /**
+     * Returns the number of pixels per world coordinate unit.
+     */
+    double getScale();
+
+    /**
+     * Returns the geographic bounds covered by the Bitmap.
+     */
+    LatLngBounds getVisibleBounds();
+}
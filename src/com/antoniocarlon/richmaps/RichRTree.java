@@ -0,0 +1,425 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * R-tree (quadratic split) used to index items by their bounding rectangle.
+ * X represents the longitude and Y the latitude.
+ * Many items can be indexed at once with put and rebuild, which packs the tree
+ * (Sort-Tile-Recursive) instead of inserting them one by one.
+ */
+class RichRTree<T> {
+    private static final int MAX_ENTRIES = 16;
+    private static final int MIN_ENTRIES = MAX_ENTRIES * 2 / 5;
+    private static final Comparator<Item> X_ORDER = new Comparator<Item>() {
+        @Override
+        public int compare(final Item lhs, final Item rhs) {
+            return Double.compare(lhs.minX + lhs.maxX, rhs.minX + rhs.maxX);
+        }
+    };
+    private static final Comparator<Item> Y_ORDER = new Comparator<Item>() {
+        @Override
+        public int compare(final Item lhs, final Item rhs) {
+            return Double.compare(lhs.minY + lhs.maxY, rhs.minY + rhs.maxY);
+        }
+    };
+
+    private Node root = new Node(true);
+    private Map<T, Entry<T>> entries = new HashMap<>();
+
+    public void insert(final T item, final double minX, final double minY,
+                       final double maxX, final double maxY) {
+        if (item == null) {
+            return;
+        }
+
+        Entry<T> existing = entries.get(item);
+        if (existing != null && existing.minX == minX && existing.minY == minY
+                && existing.maxX == maxX && existing.maxY == maxY) {
+            return;
+        }
+        remove(item);
+
+        Entry<T> entry = new Entry<>(item);
+        entry.set(minX, minY, maxX, maxY);
+        entries.put(item, entry);
+        insert(entry);
+    }
+
+    /**
+     * Adds or moves the item without updating the tree. rebuild must be called before
+     * searching again.
+     */
+    public void put(final T item, final double minX, final double minY,
+                    final double maxX, final double maxY) {
+        if (item == null) {
+            return;
+        }
+
+        remove(item);
+        Entry<T> entry = new Entry<>(item);
+        entry.set(minX, minY, maxX, maxY);
+        entries.put(item, entry);
+    }
+
+    /**
+     * Removes the items, rebuilding the tree if they are a large part of it.
+     */
+    public void removeAll(final Collection<T> items) {
+        if (items.size() * 2 < entries.size()) {
+            for (T item : items) {
+                remove(item);
+            }
+            return;
+        }
+
+        for (T item : items) {
+            entries.remove(item);
+        }
+        rebuild();
+    }
+
+    /**
+     * Packs all the items into a new tree, sorting them into vertical slices and each slice
+     * by latitude, so nodes overlap less than inserting them one by one.
+     */
+    public void rebuild() {
+        List<Item> items = new ArrayList<Item>(entries.values());
+        if (items.isEmpty()) {
+            root = new Node(true);
+            return;
+        }
+
+        boolean leaf = true;
+        do {
+            items = pack(items, leaf);
+            leaf = false;
+        } while (items.size() > 1);
+        root = (Node) items.get(0);
+        root.parent = null;
+    }
+
+    private List<Item> pack(final List<Item> items, final boolean leaf) {
+        int nodeCount = (items.size() + MAX_ENTRIES - 1) / MAX_ENTRIES;
+        int sliceSize = (int) Math.ceil(Math.sqrt(nodeCount)) * MAX_ENTRIES;
+        Collections.sort(items, X_ORDER);
+
+        List<Item> nodes = new ArrayList<>(nodeCount);
+        for (int start = 0; start < items.size(); start += sliceSize) {
+            List<Item> slice = items.subList(start, Math.min(items.size(), start + sliceSize));
+            Collections.sort(slice, Y_ORDER);
+            for (int i = 0; i < slice.size(); i += MAX_ENTRIES) {
+                Node node = new Node(leaf);
+                for (int j = i; j < Math.min(slice.size(), i + MAX_ENTRIES); j++) {
+                    node.add(slice.get(j));
+                }
+                nodes.add(node);
+            }
+        }
+        return nodes;
+    }
+
+    public boolean remove(final T item) {
+        Entry<T> entry = entries.remove(item);
+        if (entry == null) {
+            return false;
+        }
+
+        Node leaf = entry.parent;
+        if (leaf == null) {
+            return true; // Put but not in the tree yet
+        }
+        leaf.children.remove(entry);
+        entry.parent = null;
+        condense(leaf);
+        return true;
+    }
+
+    public boolean contains(final T item) {
+        return entries.containsKey(item);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void clear() {
+        root = new Node(true);
+        entries.clear();
+    }
+
+    public void search(final double minX, final double minY,
+                       final double maxX, final double maxY,
+                       final Collection<T> output) {
+        if (!root.children.isEmpty()) {
+            search(root, minX, minY, maxX, maxY, output);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void search(final Node node,
+                        final double minX, final double minY,
+                        final double maxX, final double maxY,
+                        final Collection<T> output) {
+        for (Item child : node.children) {
+            if (child.intersects(minX, minY, maxX, maxY)) {
+                if (node.leaf) {
+                    output.add(((Entry<T>) child).item);
+                } else {
+                    search((Node) child, minX, minY, maxX, maxY, output);
+                }
+            }
+        }
+    }
+
+    private void insert(final Entry<T> entry) {
+        Node leaf = chooseLeaf(entry);
+        leaf.add(entry);
+
+        Node node = leaf;
+        while (node != null) {
+            Node sibling = null;
+            if (node.children.size() > MAX_ENTRIES) {
+                sibling = split(node);
+            }
+
+            if (node == root) {
+                if (sibling != null) {
+                    Node newRoot = new Node(false);
+                    newRoot.add(node);
+                    newRoot.add(sibling);
+                    root = newRoot;
+                }
+                break;
+            }
+
+            Node parent = node.parent;
+            parent.include(entry);
+            if (sibling != null) {
+                parent.add(sibling);
+            }
+            node = parent;
+        }
+    }
+
+    private Node chooseLeaf(final Item item) {
+        Node node = root;
+        while (!node.leaf) {
+            Node best = null;
+            double bestEnlargement = Double.MAX_VALUE;
+            double bestArea = Double.MAX_VALUE;
+            for (Item child : node.children) {
+                double area = child.area();
+                double enlargement = child.enlargedArea(item) - area;
+                if (enlargement < bestEnlargement
+                        || (enlargement == bestEnlargement && area < bestArea)) {
+                    best = (Node) child;
+                    bestEnlargement = enlargement;
+                    bestArea = area;
+                }
+            }
+            node = best;
+        }
+        return node;
+    }
+
+    private Node split(final Node node) {
+        List<Item> children = new ArrayList<>(node.children);
+        node.children.clear();
+        node.recalculate();
+        Node sibling = new Node(node.leaf);
+
+        // Pick the two seeds that would waste the most area if grouped together
+        int seed1 = 0;
+        int seed2 = 1;
+        double worstWaste = -Double.MAX_VALUE;
+        for (int i = 0; i < children.size(); i++) {
+            for (int j = i + 1; j < children.size(); j++) {
+                Item a = children.get(i);
+                Item b = children.get(j);
+                double waste = a.enlargedArea(b) - a.area() - b.area();
+                if (waste > worstWaste) {
+                    worstWaste = waste;
+                    seed1 = i;
+                    seed2 = j;
+                }
+            }
+        }
+
+        node.add(children.get(seed1));
+        sibling.add(children.get(seed2));
+        children.remove(seed2);
+        children.remove(seed1);
+
+        while (!children.isEmpty()) {
+            if (node.children.size() + children.size() == MIN_ENTRIES) {
+                for (Item child : children) {
+                    node.add(child);
+                }
+                break;
+            }
+            if (sibling.children.size() + children.size() == MIN_ENTRIES) {
+                for (Item child : children) {
+                    sibling.add(child);
+                }
+                break;
+            }
+
+            // Assign next the child with the greatest preference for one of the groups
+            int next = 0;
+            double maxDifference = -1;
+            for (int i = 0; i < children.size(); i++) {
+                Item child = children.get(i);
+                double d1 = node.enlargedArea(child) - node.area();
+                double d2 = sibling.enlargedArea(child) - sibling.area();
+                double difference = Math.abs(d1 - d2);
+                if (difference > maxDifference) {
+                    maxDifference = difference;
+                    next = i;
+                }
+            }
+
+            Item child = children.remove(next);
+            double d1 = node.enlargedArea(child) - node.area();
+            double d2 = sibling.enlargedArea(child) - sibling.area();
+            if (d1 < d2 || (d1 == d2 && node.children.size() <= sibling.children.size())) {
+                node.add(child);
+            } else {
+                sibling.add(child);
+            }
+        }
+
+        return sibling;
+    }
+
+    private void condense(final Node leaf) {
+        List<Entry<T>> orphans = new ArrayList<>();
+
+        Node node = leaf;
+        while (node != root) {
+            Node parent = node.parent;
+            if (node.children.size() < MIN_ENTRIES) {
+                parent.children.remove(node);
+                node.parent = null;
+                collectEntries(node, orphans);
+            } else {
+                node.recalculate();
+            }
+            node = parent;
+        }
+        root.recalculate();
+
+        while (!root.leaf && root.children.size() == 1) {
+            root = (Node) root.children.get(0);
+            root.parent = null;
+        }
+        if (!root.leaf && root.children.isEmpty()) {
+            root = new Node(true);
+        }
+
+        for (Entry<T> orphan : orphans) {
+            orphan.parent = null;
+            insert(orphan);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void collectEntries(final Node node, final List<Entry<T>> output) {
+        for (Item child : node.children) {
+            if (node.leaf) {
+                output.add((Entry<T>) child);
+            } else {
+                collectEntries((Node) child, output);
+            }
+        }
+    }
+
+    private static class Item {
+        double minX = Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+        Node parent;
+
+        void set(final double minX, final double minY, final double maxX, final double maxY) {
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+        }
+
+        void include(final Item item) {
+            minX = Math.min(minX, item.minX);
+            minY = Math.min(minY, item.minY);
+            maxX = Math.max(maxX, item.maxX);
+            maxY = Math.max(maxY, item.maxY);
+        }
+
+        double area() {
+            return (maxX - minX) * (maxY - minY);
+        }
+
+        double enlargedArea(final Item item) {
+            return (Math.max(maxX, item.maxX) - Math.min(minX, item.minX))
+                    * (Math.max(maxY, item.maxY) - Math.min(minY, item.minY));
+        }
+
+        boolean intersects(final double checkMinX, final double checkMinY,
+                           final double checkMaxX, final double checkMaxY) {
+            return RichUtils.intersectsRectangle(checkMinX, checkMinY, checkMaxX, checkMaxY,
+                    minX, minY, maxX, maxY);
+        }
+    }
+
+    private static class Node extends Item {
+        final boolean leaf;
+        final List<Item> children = new ArrayList<>(MAX_ENTRIES + 1);
+
+        Node(final boolean leaf) {
+            this.leaf = leaf;
+        }
+
+        void add(final Item child) {
+            children.add(child);
+            child.parent = this;
+            include(child);
+        }
+
+        void recalculate() {
+            set(Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE);
+            for (Item child : children) {
+                include(child);
+            }
+        }
+    }
+
+    private static class Entry<T> extends Item {
+        final T item;
+
+        Entry(final T item) {
+            this.item = item;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+import android.graphics.Color;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Maps an input, either a numeric attribute of the shapes or the zoom level, to colors or
+ * to values (e.g. stroke widths) interpolated linearly between stops. Inputs out of the
+ * stops get the value of the nearest one.
+ */
+public final class RichRamp {
+    private final String attribute; // Null if the input is the zoom level
+    private final double[] inputs;
+    private final double[] values; // Null in color ramps
+    private final int[] colors; // Null in value ramps
+
+    private RichRamp(final String attribute, final double[] inputs, final double[] values,
+                     final int[] colors) {
+        this.attribute = attribute;
+        this.inputs = inputs;
+        this.values = values;
+        this.colors = colors;
+    }
+
+    /**
+     * Starts a ramp whose input is the attribute of the shapes with the given name
+     * (see RichShape.setAttribute).
+     */
+    public static Builder byAttribute(final String attribute) {
+        if (attribute == null) {
+            throw new IllegalArgumentException("Attribute cannot be null");
+        }
+        return new Builder(attribute);
+    }
+
+    /**
+     * Starts a ramp whose input is the zoom level of the map.
+     */
+    public static Builder byZoom() {
+        return new Builder(null);
+    }
+
+    /**
+     * Returns the name of the input attribute, or null if the input is the zoom level.
+     */
+    public String getAttribute() {
+        return attribute;
+    }
+
+    public boolean isColorRamp() {
+        return colors != null;
+    }
+
+    /**
+     * Returns the largest value of a value ramp.
+     */
+    double getMaxValue() {
+        double max = values[0];
+        for (double value : values) {
+            max = Math.max(max, value);
+        }
+        return max;
+    }
+
+    /**
+     * Evaluates a value ramp for count inputs at once.
+     */
+    void evaluate(final double[] in, final int count, final double[] out) {
+        for (int i = 0; i < count; i++) {
+            int stop = findStop(in[i]);
+            if (stop >= 0) {
+                out[i] = values[stop];
+            } else {
+                int upper = -stop - 1;
+                double t = fraction(in[i], upper);
+                out[i] = values[upper - 1] + (values[upper] - values[upper - 1]) * t;
+            }
+        }
+    }
+
+    /**
+     * Evaluates a color ramp for count inputs at once, interpolating each ARGB channel.
+     */
+    void evaluate(final double[] in, final int count, final int[] out) {
+        for (int i = 0; i < count; i++) {
+            int stop = findStop(in[i]);
+            if (stop >= 0) {
+                out[i] = colors[stop];
+            } else {
+                int upper = -stop - 1;
+                double t = fraction(in[i], upper);
+                int from = colors[upper - 1];
+                int to = colors[upper];
+                out[i] = Color.argb(mix(Color.alpha(from), Color.alpha(to), t),
+                        mix(Color.red(from), Color.red(to), t),
+                        mix(Color.green(from), Color.green(to), t),
+                        mix(Color.blue(from), Color.blue(to), t));
+            }
+        }
+    }
+
+    /**
+     * Returns the stop whose value the input gets, or -(upper + 1) if it lies between
+     * the stops upper - 1 and upper. Missing inputs (NaN) get the first stop.
+     */
+    private int findStop(final double input) {
+        if (Double.isNaN(input) || input <= inputs[0]) {
+            return 0;
+        }
+        if (input >= inputs[inputs.length - 1]) {
+            return inputs.length - 1;
+        }
+
+        return Arrays.binarySearch(inputs, input);
+    }
+
+    private double fraction(final double input, final int upper) {
+        return (input - inputs[upper - 1]) / (inputs[upper] - inputs[upper - 1]);
+    }
+
+    private static int mix(final int from, final int to, final double t) {
+        return (int) Math.round(from + (to - from) * t);
+    }
+
+    public static class Builder {
+        private final String attribute;
+        private final List<Double> inputs = new ArrayList<>();
+        private final List<Double> values = new ArrayList<>();
+        private final List<Integer> colors = new ArrayList<>();
+
+        private Builder(final String attribute) {
+            this.attribute = attribute;
+        }
+
+        /**
+         * Adds a stop where the input gets the color. The inputs must be increasing.
+         */
+        public Builder color(final double input, final int color) {
+            if (!values.isEmpty()) {
+                throw new IllegalArgumentException("A ramp cannot mix colors and values");
+            }
+            addInput(input);
+            colors.add(color);
+            return this;
+        }
+
+        /**
+         * Adds a stop where the input gets the value. The inputs must be increasing.
+         */
+        public Builder value(final double input, final double value) {
+            if (!colors.isEmpty()) {
+                throw new IllegalArgumentException("A ramp cannot mix colors and values");
+            }
+            addInput(input);
+            values.add(value);
+            return this;
+        }
+
+        private void addInput(final double input) {
+            if (Double.isNaN(input)
+                    || (!inputs.isEmpty() && input <= inputs.get(inputs.size() - 1))) {
+                throw new IllegalArgumentException("The inputs of the stops must be increasing");
+            }
+            inputs.add(input);
+        }
+
+        public RichRamp build() {
+            if (inputs.isEmpty()) {
+                throw new IllegalStateException("A ramp needs at least one stop");
+            }
+
+            double[] stopInputs = new double[inputs.size()];
+            for (int i = 0; i < stopInputs.length; i++) {
+                stopInputs[i] = inputs.get(i);
+            }
+            if (!colors.isEmpty()) {
+                int[] stopColors = new int[colors.size()];
+                for (int i = 0; i < stopColors.length; i++) {
+                    stopColors[i] = colors.get(i);
+                }
+                return new RichRamp(attribute, stopInputs, null, stopColors);
+            }
+
+            double[] stopValues = new double[values.size()];
+            for (int i = 0; i < stopValues.length; i++) {
+                stopValues[i] = values.get(i);
+            }
+            return new RichRamp(attribute, stopInputs, stopValues, null);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+/**
+ * Keeps the time taken to render a frame under a budget. Each frame over the budget enables
+ * the next degradation step, and each frame well under it (half the budget) disables the
+ * last one. The level is the number of steps enabled, 0 being full quality.
+ */
+class RichRenderBudget {
+    private static final float DEGRADED_SIMPLIFY_TOLERANCE = 2; // In pixels
+    private static final float DEGRADED_RESOLUTION = 0.5f;
+
+    private final long budgetNanos;
+    private final RichLayer.Degradation[] steps;
+    private volatile int level = 0;
+
+    RichRenderBudget(final long budgetMillis, final RichLayer.Degradation[] steps) {
+        this.budgetNanos = budgetMillis * 1000000L;
+        this.steps = steps;
+    }
+
+    int getLevel() {
+        return level;
+    }
+
+    /**
+     * Updates the level from the time taken to render a frame at the given level.
+     */
+    void record(final long elapsedNanos, final int renderedLevel) {
+        if (elapsedNanos > budgetNanos) {
+            level = Math.min(steps.length, Math.max(level, renderedLevel + 1));
+        } else if (elapsedNanos < budgetNanos / 2 && renderedLevel == level && level > 0) {
+            level--;
+        }
+    }
+
+    /**
+     * Returns true if the step is enabled at the given level.
+     */
+    boolean isDegraded(final int atLevel, final RichLayer.Degradation step) {
+        for (int i = 0; i < atLevel && i < steps.length; i++) {
+            if (steps[i] == step) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sets the quality of the renderer for the given level.
+     */
+    void apply(final RichRenderer renderer, final int atLevel) {
+        renderer.setQuality(!isDegraded(atLevel, RichLayer.Degradation.ANTIALIAS),
+                !isDegraded(atLevel, RichLayer.Degradation.EFFECTS),
+                isDegraded(atLevel, RichLayer.Degradation.SIMPLIFY)
+                        ? DEGRADED_SIMPLIFY_TOLERANCE : 0);
+    }
+
+    /**
+     * Returns the scale of the Bitmap resolution at the given level.
+     */
+    float getResolution(final int atLevel) {
+        return isDegraded(atLevel, RichLayer.Degradation.RESOLUTION) ? DEGRADED_RESOLUTION : 1;
+    }
+}
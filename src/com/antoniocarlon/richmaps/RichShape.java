@@ -1,136 +1,464 @@
-/*
- * Copyright 2016 ANTONIO CARLON
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- * http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-
-package com.antoniocarlon.richmaps;
-
-import android.graphics.Bitmap;
-import android.graphics.Color;
-import android.graphics.MaskFilter;
-import android.graphics.Paint;
-import android.graphics.PathEffect;
-import android.graphics.Shader;
-
-import com.google.android.gms.maps.Projection;
-import com.google.android.gms.maps.model.LatLngBounds;
-
-import java.util.ArrayList;
-import java.util.List;
-
-/**
- * Represents a shape to be drawn using rich symbology.
- */
-public abstract class RichShape {
-    protected int zIndex = 0;
-
-    protected List<RichPoint> points = new ArrayList<>();
-
-    protected int strokeWidth = 1;
-    protected Paint.Cap strokeCap = Paint.Cap.ROUND;
-    protected Paint.Join strokeJoin = Paint.Join.MITER;
-    protected PathEffect pathEffect;
-    protected MaskFilter maskFilter;
-    protected Shader strokeShader;
-    protected boolean linearGradient = true;
-    protected Integer strokeColor = Color.BLACK;
-    protected boolean antialias = true;
-    protected boolean closed = false;
-
-    RichShape(final int zIndex,
-              final List<RichPoint> points,
-              final int strokeWidth,
-              final Paint.Cap strokeCap,
-              final Paint.Join strokeJoin,
-              final PathEffect pathEffect,
-              final MaskFilter maskFilter,
-              final Shader strokeShader,
-              final boolean linearGradient,
-              final Integer strokeColor,
-              final boolean antialias,
-              final boolean closed) {
-        this.zIndex = zIndex;
-        this.strokeWidth = strokeWidth;
-        this.strokeCap = strokeCap;
-        this.strokeJoin = strokeJoin;
-        this.pathEffect = pathEffect;
-        this.maskFilter = maskFilter;
-        this.strokeShader = strokeShader;
-        this.linearGradient = linearGradient;
-        this.strokeColor = strokeColor;
-        this.antialias = antialias;
-        this.closed = closed;
-        if (points != null) {
-            for (RichPoint point : points) {
-                add(point);
-            }
-        }
-    }
-
-    public RichShape add(final RichPoint point) {
-        if (point != null) {
-            if (point.getColor() == null) {
-                point.color(strokeColor);
-            }
-            points.add(point);
-        }
-        return this;
-    }
-
-    public int getZIndex() {
-        return this.zIndex;
-    }
-
-    public LatLngBounds getBounds() {
-        if (points.isEmpty()) {
-            return null;
-        }
-
-        LatLngBounds.Builder builder = new LatLngBounds.Builder();
-        for (RichPoint point : points) {
-            if (point.getPosition() != null) {
-                builder.include(point.getPosition());
-            }
-        }
-        return builder.build();
-    }
-
-    protected abstract void doDraw(final Bitmap bitmap, final Projection projection,
-                                   final int paddingLeft, final int paddingTop,
-                                   final int paddingRight, final int paddingBottom);
-
-    public void draw(final Bitmap bitmap, final Projection projection,
-                     final int paddingLeft, final int paddingTop,
-                     final int paddingRight, final int paddingBottom) {
-        if (bitmap == null || projection == null) {
-            throw new IllegalStateException("Bitmap and Projection cannot be null");
-        }
-
-        if (boundsIntersects(projection.getVisibleRegion().latLngBounds)) {
-            doDraw(bitmap, projection, paddingLeft, paddingTop, paddingRight, paddingBottom);
-        }
-    }
-
-    public boolean boundsIntersects(final LatLngBounds test) {
-        LatLngBounds bounds = getBounds();
-        if (bounds == null || test == null) {
-            return false;
-        }
-
-        return RichUtils.intersectsRectangle(test.southwest.longitude, test.southwest.latitude,
-                test.northeast.longitude, test.northeast.latitude,
-                bounds.southwest.longitude, bounds.southwest.latitude,
-                bounds.northeast.longitude, bounds.northeast.latitude);
-    }
-}
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.MaskFilter;
+import android.graphics.PathEffect;
+import android.graphics.Shader;
+
+import com.google.android.gms.maps.Projection;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Represents a shape to be drawn using rich symbology.
+ */
+public abstract class RichShape {
+    protected int zIndex = 0;
+
+    protected RichVertices vertices = new RichVertices();
+
+    protected int strokeWidth = 1;
+    protected RichPaint.Cap strokeCap = RichPaint.Cap.ROUND;
+    protected RichPaint.Join strokeJoin = RichPaint.Join.MITER;
+    protected PathEffect pathEffect;
+    protected MaskFilter maskFilter;
+    protected Shader strokeShader;
+    protected boolean linearGradient = true;
+    protected Integer strokeColor = Color.BLACK;
+    protected boolean antialias = true;
+    protected boolean closed = false;
+    protected float simplifyTolerance = 0;
+
+    // Bounds of the shape, updated incrementally as points are added
+    protected double minLatitude = Double.MAX_VALUE;
+    protected double minLongitude = Double.MAX_VALUE;
+    protected double maxLatitude = -Double.MAX_VALUE;
+    protected double maxLongitude = -Double.MAX_VALUE;
+
+    // Numeric attributes for data-driven styling (see RichStyle), in parallel arrays
+    private String[] attributeNames = new String[0];
+    private double[] attributeValues = new double[0];
+    volatile long attributesVersion = 0;
+    volatile RichStyle.Result styled; // Last style of the layer evaluated for the shape
+
+    // Layer indexing the shape and order it was added in, set with the lock of the index
+    RichLayer layer;
+    long order;
+    // Layer the shape was last added to, notified of its changes before it's indexed
+    volatile RichLayer owner;
+
+    RichShape(final int zIndex,
+              final List<RichPoint> points,
+              final int strokeWidth,
+              final RichPaint.Cap strokeCap,
+              final RichPaint.Join strokeJoin,
+              final PathEffect pathEffect,
+              final MaskFilter maskFilter,
+              final Shader strokeShader,
+              final boolean linearGradient,
+              final Integer strokeColor,
+              final boolean antialias,
+              final boolean closed,
+              final float simplifyTolerance) {
+        this.zIndex = zIndex;
+        this.strokeWidth = strokeWidth;
+        this.strokeCap = strokeCap;
+        this.strokeJoin = strokeJoin;
+        this.pathEffect = pathEffect;
+        this.maskFilter = maskFilter;
+        this.strokeShader = strokeShader;
+        this.linearGradient = linearGradient;
+        this.strokeColor = strokeColor;
+        this.antialias = antialias;
+        this.closed = closed;
+        this.simplifyTolerance = simplifyTolerance;
+        if (points != null) {
+            for (RichPoint point : points) {
+                add(point);
+            }
+        }
+    }
+
+    public RichShape add(final RichPoint point) {
+        if (point != null) {
+            if (point.getColor() == null) {
+                point.color(strokeColor);
+            }
+            LatLng position = point.getPosition();
+            if (position != null) {
+                add(position.latitude, position.longitude, getColor(point.getColor()));
+            } else {
+                add(Double.NaN, Double.NaN, getColor(point.getColor()));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Adds a point without allocating any object, NaN coordinates mean no position.
+     */
+    public RichShape add(final double latitude, final double longitude, final int color) {
+        vertices.add(latitude, longitude, color);
+        notifyAdded(vertices, vertices.size() - 1);
+        return this;
+    }
+
+    /**
+     * Adds the points stored in parallel arrays. If colors is null the points get
+     * the stroke color.
+     */
+    public RichShape add(final double[] latitudes, final double[] longitudes,
+                         final int[] colors) {
+        checkArrays(latitudes, longitudes, colors);
+        return add(latitudes, longitudes, colors, 0, latitudes.length);
+    }
+
+    /**
+     * Adds count points stored in parallel arrays, starting at offset.
+     */
+    public RichShape add(final double[] latitudes, final double[] longitudes,
+                         final int[] colors, final int offset, final int count) {
+        checkArrays(latitudes, longitudes, colors);
+        checkRange(latitudes, offset, count);
+        int first = vertices.size();
+        vertices.add(latitudes, longitudes, colors, getColor(strokeColor), offset, count);
+        notifyAdded(vertices, first);
+        return this;
+    }
+
+    protected static void checkArrays(final double[] latitudes, final double[] longitudes,
+                                      final int[] colors) {
+        if (latitudes == null || longitudes == null) {
+            throw new IllegalArgumentException("Latitudes and longitudes cannot be null");
+        }
+        if (latitudes.length != longitudes.length
+                || (colors != null && colors.length != latitudes.length)) {
+            throw new IllegalArgumentException("Arrays must have the same length");
+        }
+    }
+
+    protected static void checkRange(final double[] latitudes, final int offset,
+                                     final int count) {
+        if (offset < 0 || count < 0 || offset + count > latitudes.length) {
+            throw new IllegalArgumentException("Range out of the arrays");
+        }
+    }
+
+    /**
+     * Returns the color to store for a point, colorless points are transparent
+     * if the shape has no stroke color.
+     */
+    protected static int getColor(final Integer color) {
+        return color != null ? color : Color.TRANSPARENT;
+    }
+
+    /**
+     * Includes the vertices added from the given index into the bounds and notifies the
+     * layer. Only the new segments (and the closing one) need to be drawn again.
+     */
+    private void notifyAdded(final RichVertices added, final int first) {
+        double changedMinLatitude = Double.MAX_VALUE;
+        double changedMinLongitude = Double.MAX_VALUE;
+        double changedMaxLatitude = -Double.MAX_VALUE;
+        double changedMaxLongitude = -Double.MAX_VALUE;
+        boolean changed = false;
+        int from = first > 0 && added.hasPosition(first - 1) ? first - 1 : first;
+        for (int i = from; i < added.size(); i++) {
+            if (added.hasPosition(i)) {
+                double latitude = added.getLatitude(i);
+                double longitude = added.getLongitude(i);
+                includeInBounds(latitude, longitude);
+                changedMinLatitude = Math.min(changedMinLatitude, latitude);
+                changedMinLongitude = Math.min(changedMinLongitude, longitude);
+                changedMaxLatitude = Math.max(changedMaxLatitude, latitude);
+                changedMaxLongitude = Math.max(changedMaxLongitude, longitude);
+                changed = i >= first || changed;
+            }
+        }
+
+        if (changed) {
+            if (closed && added.hasPosition(0)) {
+                changedMinLatitude = Math.min(changedMinLatitude, added.getLatitude(0));
+                changedMinLongitude = Math.min(changedMinLongitude, added.getLongitude(0));
+                changedMaxLatitude = Math.max(changedMaxLatitude, added.getLatitude(0));
+                changedMaxLongitude = Math.max(changedMaxLongitude, added.getLongitude(0));
+            }
+            notifyChanged(new LatLngBounds(new LatLng(changedMinLatitude, changedMinLongitude),
+                    new LatLng(changedMaxLatitude, changedMaxLongitude)));
+        }
+    }
+
+    protected void includeInBounds(final double latitude, final double longitude) {
+        minLatitude = Math.min(minLatitude, latitude);
+        minLongitude = Math.min(minLongitude, longitude);
+        maxLatitude = Math.max(maxLatitude, latitude);
+        maxLongitude = Math.max(maxLongitude, longitude);
+    }
+
+    public boolean hasBounds() {
+        return minLatitude <= maxLatitude;
+    }
+
+    /**
+     * Notifies the layer that the whole shape changed.
+     */
+    protected void notifyChanged() {
+        notifyChanged(getBounds());
+    }
+
+    /**
+     * Notifies the layer that the shape changed inside the given bounds.
+     */
+    protected void notifyChanged(final LatLngBounds changed) {
+        RichLayer notified = owner;
+        if (notified != null) {
+            notified.onShapeChanged(this, changed);
+        }
+    }
+
+    public List<RichPoint> getPoints() {
+        return vertices.getPoints();
+    }
+
+    /**
+     * Sets a numeric attribute used by the style of the layer (see RichStyle), NaN removes
+     * its value. Only the style of the shape is evaluated again, its geometry is kept.
+     */
+    public void setAttribute(final String name, final double value) {
+        if (name == null) {
+            throw new IllegalArgumentException("Attribute name cannot be null");
+        }
+
+        synchronized (this) {
+            int i = indexOfAttribute(name);
+            if (i < 0) {
+                i = attributeNames.length;
+                attributeNames = Arrays.copyOf(attributeNames, i + 1);
+                attributeValues = Arrays.copyOf(attributeValues, i + 1);
+                attributeNames[i] = name;
+            } else if (Double.compare(attributeValues[i], value) == 0) {
+                return;
+            }
+            attributeValues[i] = value;
+            attributesVersion++;
+        }
+
+        RichLayer notified = owner;
+        if (notified != null) {
+            notified.onShapeRestyled(this);
+        }
+    }
+
+    /**
+     * Returns the value of the attribute, or NaN if the shape doesn't have it.
+     */
+    public synchronized double getAttribute(final String name) {
+        int i = indexOfAttribute(name);
+        return i >= 0 ? attributeValues[i] : Double.NaN;
+    }
+
+    private int indexOfAttribute(final String name) {
+        for (int i = 0; i < attributeNames.length; i++) {
+            if (attributeNames[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the style of the layer evaluated for the shape at the zoom of the projection,
+     * or null if the layer has no style.
+     */
+    RichStyle.Result getStyle(final RichProjection projection) {
+        RichLayer current = layer;
+        RichStyle style = current != null ? current.getStyle() : null;
+        return style != null ? style.resolve(this, current.getZoom(projection)) : null;
+    }
+
+    /**
+     * Returns the style last evaluated for the shape if it belongs to the current style of
+     * the layer, for uses without a projection (e.g. picking and dots).
+     */
+    RichStyle.Result getLastStyle() {
+        RichLayer current = layer;
+        RichStyle.Result result = styled;
+        return result != null && current != null && result.style == current.getStyle()
+                ? result : null;
+    }
+
+    /**
+     * Returns the stroke width the shape was last drawn with.
+     */
+    float getDrawnStrokeWidth() {
+        RichStyle.Result result = getLastStyle();
+        return result != null ? result.getStrokeWidth(strokeWidth) : strokeWidth;
+    }
+
+    /**
+     * Returns the number of vertices, used to estimate the cost of drawing the shape.
+     */
+    int getVertexCount() {
+        return vertices.size();
+    }
+
+    /**
+     * Projects the vertices into the buffer of the renderer, as x0, y0, x1, y1...
+     */
+    protected static float[] project(final RichRenderer renderer,
+                                     final RichProjection projection,
+                                     final RichVertices vertices2Project) {
+        float[] screenCoordinates = renderer.getScreenBuffer(vertices2Project.size());
+        vertices2Project.project(projection, screenCoordinates);
+        return screenCoordinates;
+    }
+
+    /**
+     * Returns the indices of the vertices to draw with the given projection,
+     * simplified for its zoom level if the shape or the renderer have a simplification tolerance.
+     */
+    protected int[] select(final RichRenderer renderer, final RichProjection projection,
+                           final RichVertices vertices2Draw) {
+        return vertices2Draw.select(projection.getScale(),
+                Math.max(simplifyTolerance, renderer.getSimplifyTolerance()));
+    }
+
+    /**
+     * Sets the stroke of the shape, with its Android effects when drawing into a Canvas.
+     */
+    protected void setStroke(final RichRenderer renderer, final float width) {
+        if (renderer instanceof RichCanvasRenderer) {
+            ((RichCanvasRenderer) renderer).setStroke(width, strokeCap, strokeJoin, antialias,
+                    pathEffect, maskFilter);
+        } else {
+            renderer.setStroke(width, strokeCap, strokeJoin, antialias);
+        }
+    }
+
+    /**
+     * Strokes the current path with the color, or with the shader if it's not null and the
+     * renderer draws into a Canvas.
+     */
+    protected static void strokePath(final RichRenderer renderer, final int color,
+                                     final Shader shader) {
+        if (shader != null && renderer instanceof RichCanvasRenderer) {
+            ((RichCanvasRenderer) renderer).strokePath(color, shader);
+        } else {
+            renderer.strokePath(color);
+        }
+    }
+
+    /**
+     * Returns true if the world point (x, y) is on the shape, allowing tolerance pixels
+     * around its stroke at the given scale (pixels per world unit).
+     */
+    protected boolean hits(final double x, final double y, final double scale,
+                           final float tolerance) {
+        return isNear(vertices, x, y, closed, (tolerance + getDrawnStrokeWidth() / 2f) / scale);
+    }
+
+    protected static boolean isNear(final RichVertices vertices2Test,
+                                    final double x, final double y,
+                                    final boolean closedLine, final double distance) {
+        return vertices2Test.squaredDistance(x, y, closedLine) <= distance * distance;
+    }
+
+    /**
+     * Returns the color used to draw the shape as a dot when it's too small for its geometry.
+     */
+    protected int getDotColor() {
+        RichStyle.Result result = getLastStyle();
+        if (result != null && result.strokeColor != null) {
+            return result.strokeColor;
+        }
+        if (strokeColor != null) {
+            return strokeColor;
+        }
+        return getFirstColor();
+    }
+
+    int getFirstColor() {
+        return vertices.size() > 0 ? vertices.getColor(0) : Color.TRANSPARENT;
+    }
+
+    public int getZIndex() {
+        return this.zIndex;
+    }
+
+    public LatLngBounds getBounds() {
+        if (!hasBounds()) {
+            return null;
+        }
+
+        return new LatLngBounds(new LatLng(minLatitude, minLongitude),
+                new LatLng(maxLatitude, maxLongitude));
+    }
+
+    protected abstract void doDraw(final RichRenderer renderer, final RichProjection projection);
+
+    protected void doDraw(final Bitmap bitmap, final RichProjection projection) {
+        doDraw(RichCanvasRenderer.obtain(bitmap), projection);
+    }
+
+    public void draw(final Bitmap bitmap, final Projection projection,
+                     final int paddingLeft, final int paddingTop,
+                     final int paddingRight, final int paddingBottom) {
+        if (bitmap == null || projection == null) {
+            throw new IllegalStateException("Bitmap and Projection cannot be null");
+        }
+
+        draw(bitmap, new RichMapProjection(projection,
+                paddingLeft, paddingTop, paddingRight, paddingBottom));
+    }
+
+    public void draw(final Bitmap bitmap, final RichProjection projection) {
+        if (bitmap == null || projection == null) {
+            throw new IllegalStateException("Bitmap and Projection cannot be null");
+        }
+
+        draw(RichCanvasRenderer.obtain(bitmap), projection);
+    }
+
+    /**
+     * Draws the shape with the given renderer, e.g. one drawing into a tile.
+     */
+    public void draw(final RichRenderer renderer, final RichProjection projection) {
+        if (renderer == null || projection == null) {
+            throw new IllegalStateException("Renderer and Projection cannot be null");
+        }
+
+        if (boundsIntersects(projection.getVisibleBounds())) {
+            doDraw(renderer, projection);
+        }
+    }
+
+    public boolean boundsIntersects(final LatLngBounds test) {
+        if (!hasBounds() || test == null) {
+            return false;
+        }
+
+        return RichUtils.intersectsRectangle(test.southwest.longitude, test.southwest.latitude,
+                test.northeast.longitude, test.northeast.latitude,
+                minLongitude, minLatitude, maxLongitude, maxLatitude);
+    }
+}
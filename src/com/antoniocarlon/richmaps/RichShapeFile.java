@@ -0,0 +1,417 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Compact binary file of shapes, read through a memory mapped buffer so the geometry is
+ * paged in lazily and only the shapes inside the requested bounds are decoded.
+ * <p>
+ * The file starts with a header (magic, version and shape count) followed by an index with
+ * the offset and the bounds of each shape. Each shape stores its style and its rings
+ * (the outline and the holes) as zigzag delta varints of the coordinates quantized to
+ * 1e-7 degrees, with the colors of the outline run-length encoded (the holes get the stroke
+ * color when read).
+ * Shaders, PathEffects and MaskFilters are not stored.
+ */
+public class RichShapeFile {
+    private static final int MAGIC = 0x524d4150; // "RMAP"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int INDEX_ENTRY_SIZE = 20; // Offset and quantized bounds
+    private static final double QUANTIZATION = 1e7;
+
+    private static final byte POLYLINE = 0;
+    private static final byte POLYGON = 1;
+
+    private static final int LINEAR_GRADIENT = 1;
+    private static final int ANTIALIAS = 1 << 1;
+    private static final int CLOSED = 1 << 2;
+    private static final int STROKE_COLOR = 1 << 3;
+    private static final int FILL_COLOR = 1 << 4;
+
+    private final ByteBuffer buffer;
+    private final int shapeCount;
+    private final BitSet loaded;
+
+    // Buffers for the vertices of the shape being decoded
+    private double[] latitudes = new double[256];
+    private double[] longitudes = new double[256];
+    private int[] colors = new int[256];
+
+    private RichShapeFile(final ByteBuffer buffer) throws IOException {
+        this.buffer = buffer.order(ByteOrder.BIG_ENDIAN);
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a shape file");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported shape file version " + buffer.getInt(4));
+        }
+        this.shapeCount = buffer.getInt(8);
+        this.loaded = new BitSet(shapeCount);
+    }
+
+    /**
+     * Maps the file read-only. The geometry is read from the file when the shapes are loaded.
+     */
+    public static RichShapeFile open(final FileChannel channel) throws IOException {
+        return new RichShapeFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+
+    public static RichShapeFile wrap(final ByteBuffer buffer) throws IOException {
+        return new RichShapeFile(buffer.duplicate());
+    }
+
+    public int getShapeCount() {
+        return shapeCount;
+    }
+
+    /**
+     * Adds to the layer the shapes intersecting the given bounds that haven't been loaded
+     * yet. The shapes outside the bounds are not decoded, nor the ones without any position.
+     * Returns the number of shapes added.
+     */
+    public int load(final RichLayer layer, final LatLngBounds bounds) {
+        if (layer == null || bounds == null) {
+            throw new IllegalArgumentException("Layer and LatLngBounds cannot be null");
+        }
+
+        // Round outwards so the quantized bounds never miss a shape
+        long minLatitude = (long) Math.floor(bounds.southwest.latitude * QUANTIZATION);
+        long minLongitude = (long) Math.floor(bounds.southwest.longitude * QUANTIZATION);
+        long maxLatitude = (long) Math.ceil(bounds.northeast.latitude * QUANTIZATION);
+        long maxLongitude = (long) Math.ceil(bounds.northeast.longitude * QUANTIZATION);
+
+        int count = 0;
+        for (int i = 0; i < shapeCount; i++) {
+            if (loaded.get(i)) {
+                continue;
+            }
+            int entry = HEADER_SIZE + i * INDEX_ENTRY_SIZE;
+            if (RichUtils.intersectsRectangle(minLongitude, minLatitude,
+                    maxLongitude, maxLatitude,
+                    buffer.getInt(entry + 8), buffer.getInt(entry + 4),
+                    buffer.getInt(entry + 16), buffer.getInt(entry + 12))) {
+                layer.addShape(read(i));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Adds to the layer all the shapes that haven't been loaded yet.
+     * Returns the number of shapes added.
+     */
+    public int loadAll(final RichLayer layer) {
+        if (layer == null) {
+            throw new IllegalArgumentException("Layer cannot be null");
+        }
+
+        int count = 0;
+        for (int i = 0; i < shapeCount; i++) {
+            if (!loaded.get(i)) {
+                layer.addShape(read(i));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Decodes the shape at the given position of the file.
+     */
+    public RichShape read(final int shapeIndex) {
+        if (shapeIndex < 0 || shapeIndex >= shapeCount) {
+            throw new IllegalArgumentException("Shape index out of range");
+        }
+
+        ByteBuffer input = buffer.duplicate();
+        input.position(buffer.getInt(HEADER_SIZE + shapeIndex * INDEX_ENTRY_SIZE));
+
+        byte type = input.get();
+        int zIndex = (int) readSignedVarint(input);
+        int strokeWidth = (int) readSignedVarint(input);
+        RichPaint.Cap strokeCap = RichPaint.Cap.values()[input.get()];
+        RichPaint.Join strokeJoin = RichPaint.Join.values()[input.get()];
+        int flags = input.get();
+        Integer strokeColor = (flags & STROKE_COLOR) != 0 ? input.getInt() : null;
+        float simplifyTolerance = input.getFloat();
+        boolean linearGradient = (flags & LINEAR_GRADIENT) != 0;
+        boolean antialias = (flags & ANTIALIAS) != 0;
+        boolean closed = (flags & CLOSED) != 0;
+
+        RichShape shape;
+        if (type == POLYGON) {
+            RichPaint.Style style = RichPaint.Style.values()[input.get()];
+            Integer fillColor = (flags & FILL_COLOR) != 0 ? input.getInt() : null;
+            RichPolygon polygon = new RichPolygon(zIndex, null, null, strokeWidth, strokeCap,
+                    strokeJoin, null, null, linearGradient, strokeColor, antialias, closed,
+                    simplifyTolerance, null, null, style, fillColor);
+            int ringCount = (int) readVarint(input);
+            for (int ring = 0; ring < ringCount; ring++) {
+                int count = readRing(input, ring == 0);
+                if (ring == 0) {
+                    polygon.add(latitudes, longitudes, colors, 0, count);
+                } else {
+                    polygon.addHole(latitudes, longitudes, 0, count);
+                }
+            }
+            shape = polygon;
+        } else {
+            RichPolyline polyline = new RichPolyline(zIndex, null, strokeWidth, strokeCap,
+                    strokeJoin, null, null, null, linearGradient, strokeColor, antialias, closed,
+                    simplifyTolerance);
+            readVarint(input); // Ring count, always 1
+            int count = readRing(input, true);
+            polyline.add(latitudes, longitudes, colors, 0, count);
+            shape = polyline;
+        }
+
+        loaded.set(shapeIndex);
+        return shape;
+    }
+
+    private int readRing(final ByteBuffer input, final boolean hasColors) {
+        int count = (int) readVarint(input);
+        if (latitudes.length < count) {
+            latitudes = new double[count];
+            longitudes = new double[count];
+            colors = new int[count];
+        }
+
+        // Vertices without position, all stored before the coordinates of the others
+        Arrays.fill(latitudes, 0, count, 0);
+        int missingCount = (int) readVarint(input);
+        int missing = 0;
+        for (int i = 0; i < missingCount; i++) {
+            missing += (int) readVarint(input);
+            latitudes[missing] = Double.NaN;
+        }
+
+        long latitude = 0;
+        long longitude = 0;
+        for (int i = 0; i < count; i++) {
+            if (Double.isNaN(latitudes[i])) {
+                longitudes[i] = Double.NaN;
+            } else {
+                latitude += readSignedVarint(input);
+                longitude += readSignedVarint(input);
+                latitudes[i] = latitude / QUANTIZATION;
+                longitudes[i] = longitude / QUANTIZATION;
+            }
+        }
+
+        if (hasColors) {
+            int i = 0;
+            while (i < count) {
+                int runLength = (int) readVarint(input);
+                int color = input.getInt();
+                for (int j = 0; j < runLength; j++) {
+                    colors[i++] = color;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Writes the shapes in the binary format. Shaders, PathEffects and MaskFilters
+     * are not stored.
+     */
+    public static void write(final Collection<? extends RichShape> shapes,
+                             final WritableByteChannel channel) throws IOException {
+        if (shapes == null || channel == null) {
+            throw new IllegalArgumentException("Shapes and channel cannot be null");
+        }
+
+        int indexSize = HEADER_SIZE + shapes.size() * INDEX_ENTRY_SIZE;
+        ByteBuffer index = ByteBuffer.allocate(indexSize).order(ByteOrder.BIG_ENDIAN);
+        index.putInt(MAGIC).putInt(VERSION).putInt(shapes.size());
+
+        ByteBuffer data = ByteBuffer.allocate(4096).order(ByteOrder.BIG_ENDIAN);
+        for (RichShape shape : shapes) {
+            index.putInt(indexSize + data.position());
+            if (shape.hasBounds()) {
+                index.putInt((int) Math.floor(shape.minLatitude * QUANTIZATION));
+                index.putInt((int) Math.floor(shape.minLongitude * QUANTIZATION));
+                index.putInt((int) Math.ceil(shape.maxLatitude * QUANTIZATION));
+                index.putInt((int) Math.ceil(shape.maxLongitude * QUANTIZATION));
+            } else {
+                // Inverted bounds, never intersected, so only loadAll adds the shape
+                index.putInt(Integer.MAX_VALUE).putInt(Integer.MAX_VALUE)
+                        .putInt(Integer.MIN_VALUE).putInt(Integer.MIN_VALUE);
+            }
+            data = writeShape(data, shape);
+        }
+
+        index.flip();
+        data.flip();
+        while (index.hasRemaining()) {
+            channel.write(index);
+        }
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+    }
+
+    private static ByteBuffer writeShape(final ByteBuffer output, final RichShape shape) {
+        boolean polygon = shape instanceof RichPolygon;
+        int flags = (shape.linearGradient ? LINEAR_GRADIENT : 0)
+                | (shape.antialias ? ANTIALIAS : 0)
+                | (shape.closed ? CLOSED : 0)
+                | (shape.strokeColor != null ? STROKE_COLOR : 0)
+                | (polygon && ((RichPolygon) shape).fillColor != null ? FILL_COLOR : 0);
+
+        ByteBuffer data = ensureRemaining(output, 64);
+        data.put(polygon ? POLYGON : POLYLINE);
+        writeSignedVarint(data, shape.zIndex);
+        writeSignedVarint(data, shape.strokeWidth);
+        data.put((byte) shape.strokeCap.ordinal());
+        data.put((byte) shape.strokeJoin.ordinal());
+        data.put((byte) flags);
+        if (shape.strokeColor != null) {
+            data.putInt(shape.strokeColor);
+        }
+        data.putFloat(shape.simplifyTolerance);
+
+        if (polygon) {
+            RichPolygon richPolygon = (RichPolygon) shape;
+            data.put((byte) richPolygon.style.ordinal());
+            if (richPolygon.fillColor != null) {
+                data.putInt(richPolygon.fillColor);
+            }
+            List<RichVertices> holes = richPolygon.holes;
+            writeVarint(data, 1 + holes.size());
+            data = writeRing(data, shape.vertices, true);
+            for (RichVertices hole : holes) {
+                data = writeRing(data, hole, false);
+            }
+        } else {
+            writeVarint(data, 1);
+            // Tracks are stored as polylines with their current points
+            data = writeRing(data, shape instanceof RichTrack
+                    ? ((RichTrack) shape).copyVertices() : shape.vertices, true);
+        }
+        return data;
+    }
+
+    private static ByteBuffer writeRing(final ByteBuffer output, final RichVertices ring,
+                                        final boolean hasColors) {
+        int count = ring.size();
+        // Worst case: 10 bytes per varint, 2 per vertex plus the color runs
+        ByteBuffer data = ensureRemaining(output, 32 + count * (hasColors ? 34 : 20));
+        writeVarint(data, count);
+
+        int missingCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (!ring.hasPosition(i)) {
+                missingCount++;
+            }
+        }
+        writeVarint(data, missingCount);
+        int lastMissing = 0;
+        for (int i = 0; i < count; i++) {
+            if (!ring.hasPosition(i)) {
+                writeVarint(data, i - lastMissing);
+                lastMissing = i;
+            }
+        }
+
+        long latitude = 0;
+        long longitude = 0;
+        for (int i = 0; i < count; i++) {
+            if (ring.hasPosition(i)) {
+                long quantizedLatitude = Math.round(ring.getLatitude(i) * QUANTIZATION);
+                long quantizedLongitude = Math.round(ring.getLongitude(i) * QUANTIZATION);
+                writeSignedVarint(data, quantizedLatitude - latitude);
+                writeSignedVarint(data, quantizedLongitude - longitude);
+                latitude = quantizedLatitude;
+                longitude = quantizedLongitude;
+            }
+        }
+
+        if (hasColors) {
+            int i = 0;
+            while (i < count) {
+                int color = ring.getColor(i);
+                int runLength = 1;
+                while (i + runLength < count && ring.getColor(i + runLength) == color) {
+                    runLength++;
+                }
+                writeVarint(data, runLength);
+                data.putInt(color);
+                i += runLength;
+            }
+        }
+        return data;
+    }
+
+    private static ByteBuffer ensureRemaining(final ByteBuffer data, final int size) {
+        if (data.remaining() >= size) {
+            return data;
+        }
+
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(data.capacity() * 2,
+                data.position() + size)).order(ByteOrder.BIG_ENDIAN);
+        data.flip();
+        grown.put(data);
+        return grown;
+    }
+
+    private static void writeVarint(final ByteBuffer data, final long value) {
+        long remaining = value;
+        while ((remaining & ~0x7fL) != 0) {
+            data.put((byte) ((remaining & 0x7f) | 0x80));
+            remaining >>>= 7;
+        }
+        data.put((byte) remaining);
+    }
+
+    private static void writeSignedVarint(final ByteBuffer data, final long value) {
+        writeVarint(data, (value << 1) ^ (value >> 63)); // Zigzag
+    }
+
+    private static long readVarint(final ByteBuffer data) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data.get();
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static long readSignedVarint(final ByteBuffer data) {
+        long value = readVarint(data);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
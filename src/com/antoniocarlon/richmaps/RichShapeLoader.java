@@ -0,0 +1,456 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming loader that reads GeoJSON FeatureCollections and Google encoded polylines and
+ * adds the shapes straight into a RichLayer. Only the feature being read is kept in memory,
+ * so the memory needed doesn't depend on the size of the file.
+ * <p>
+ * LineStrings are loaded as RichPolylines and Polygons as RichPolygons with their holes.
+ * Multi geometries and GeometryCollections create one shape per part. Points are ignored.
+ * <p>
+ * The input is read to the end but not closed, closing it is up to the caller.
+ */
+public class RichShapeLoader {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Kinds of ring. Until the type of their geometry is known, rings keep their index in
+    // the enclosing array instead
+    private static final int LINE = -1;
+    private static final int OUTER = -2;
+    private static final int HOLE = -3;
+    private static final int IGNORED = -4;
+
+    private final RichLayer layer;
+    private final Style style;
+
+    // Coordinates of the current feature, reused between features
+    private double[] latitudes = new double[256];
+    private double[] longitudes = new double[256];
+    private int coordinateCount;
+    private int[] ringEnds = new int[16];
+    private int[] ringKinds = new int[16];
+    private int ringCount;
+    private final Map<String, Object> properties = new HashMap<>();
+
+    /**
+     * Style applied to the loaded shapes. By default every shape is loaded
+     * with the default options.
+     */
+    public static class Style {
+        /**
+         * Styles a polyline of a feature. Returns false to skip it.
+         */
+        public boolean polyline(final Map<String, Object> properties,
+                                final RichPolylineOptions options) {
+            return true;
+        }
+
+        /**
+         * Styles a polygon of a feature. Returns false to skip it.
+         */
+        public boolean polygon(final Map<String, Object> properties,
+                               final RichPolygonOptions options) {
+            return true;
+        }
+    }
+
+    public RichShapeLoader(final RichLayer layer) {
+        this(layer, new Style());
+    }
+
+    public RichShapeLoader(final RichLayer layer, final Style style) {
+        if (layer == null || style == null) {
+            throw new IllegalArgumentException("Layer and Style cannot be null");
+        }
+        this.layer = layer;
+        this.style = style;
+    }
+
+    /**
+     * Loads a GeoJSON FeatureCollection, a Feature or a geometry.
+     * Returns the number of shapes added to the layer.
+     */
+    public int loadGeoJson(final InputStream input) throws IOException {
+        return loadGeoJson(new BufferedReader(new InputStreamReader(input, UTF_8)));
+    }
+
+    public int loadGeoJson(final ReadableByteChannel channel) throws IOException {
+        return loadGeoJson(Channels.newInputStream(channel));
+    }
+
+    public int loadGeoJson(final Reader input) throws IOException {
+        // Not closed, as it would close the input
+        return readObject(new JsonReader(input));
+    }
+
+    /**
+     * Loads encoded polylines, one per line. Other whitespace is ignored, and the properties
+     * passed to the style are empty.
+     * Returns the number of shapes added to the layer.
+     */
+    public int loadEncodedPolylines(final InputStream input) throws IOException {
+        return loadEncodedPolylines(new BufferedReader(new InputStreamReader(input, UTF_8)));
+    }
+
+    public int loadEncodedPolylines(final ReadableByteChannel channel) throws IOException {
+        return loadEncodedPolylines(Channels.newInputStream(channel));
+    }
+
+    public int loadEncodedPolylines(final Reader input) throws IOException {
+        int shapeCount = 0;
+        long latitude = 0;
+        long longitude = 0;
+        long value = 0;
+        int shift = 0;
+        boolean readingLatitude = true;
+        startFeature();
+        int c;
+        while ((c = input.read()) != -1) {
+            if (c == '\n' || c == '\r') {
+                if (coordinateCount > 0) {
+                    endRing(LINE);
+                    shapeCount += emitFeature();
+                }
+                latitude = 0;
+                longitude = 0;
+                value = 0;
+                shift = 0;
+                readingLatitude = true;
+                continue;
+            }
+            if (Character.isWhitespace(c)) {
+                continue;
+            }
+            if (c < 63 || c > 126) {
+                throw new IOException("Invalid character in encoded polyline: " + (char) c);
+            }
+
+            // Each value is split in 5-bit chunks, the 0x20 bit means more chunks follow
+            int chunk = c - 63;
+            value |= (long) (chunk & 0x1f) << shift;
+            shift += 5;
+            if (chunk < 0x20) {
+                long delta = (value & 1) != 0 ? ~(value >> 1) : value >> 1;
+                if (readingLatitude) {
+                    latitude += delta;
+                } else {
+                    longitude += delta;
+                    addCoordinate(latitude / 1e5, longitude / 1e5);
+                }
+                readingLatitude = !readingLatitude;
+                value = 0;
+                shift = 0;
+            }
+        }
+
+        if (coordinateCount > 0) {
+            endRing(LINE);
+            shapeCount += emitFeature();
+        }
+        return shapeCount;
+    }
+
+    private int readObject(final JsonReader reader) throws IOException {
+        // The members of a GeoJSON object can come in any order, so the geometry of a
+        // feature is kept until its properties have been read
+        String type = null;
+        int firstRing = -1; // First ring of the coordinates, if the object has them
+        int lastRing = -1;
+        boolean hasGeometry = false;
+        int shapeCount = 0;
+        startFeature();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("type".equals(name)) {
+                type = reader.nextString();
+            } else if ("features".equals(name)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    shapeCount += readObject(reader);
+                }
+                reader.endArray();
+            } else if ("geometry".equals(name)) {
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                } else {
+                    readGeometry(reader);
+                    hasGeometry = true;
+                }
+            } else if ("geometries".equals(name)) {
+                readGeometries(reader);
+                hasGeometry = true;
+            } else if ("coordinates".equals(name)) {
+                hasGeometry = true;
+                firstRing = ringCount;
+                readCoordinates(reader);
+                lastRing = ringCount;
+            } else if ("properties".equals(name)) {
+                readProperties(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (firstRing >= 0) {
+            setRingKinds(type, firstRing, lastRing);
+        }
+        if (hasGeometry) {
+            shapeCount += emitFeature();
+        }
+        return shapeCount;
+    }
+
+    private void readGeometry(final JsonReader reader) throws IOException {
+        String type = null;
+        int firstRing = -1;
+        int lastRing = -1;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("type".equals(name)) {
+                type = reader.nextString();
+            } else if ("coordinates".equals(name)) {
+                firstRing = ringCount;
+                readCoordinates(reader);
+                lastRing = ringCount;
+            } else if ("geometries".equals(name)) {
+                readGeometries(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (firstRing >= 0) {
+            setRingKinds(type, firstRing, lastRing);
+        }
+    }
+
+    private void readGeometries(final JsonReader reader) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            readGeometry(reader);
+        }
+        reader.endArray();
+    }
+
+    /**
+     * Reads the coordinates of a geometry, which may come before its type. Each array of
+     * positions becomes a ring, whose kind is set once the type is known (see setRingKinds).
+     */
+    private void readCoordinates(final JsonReader reader) throws IOException {
+        reader.beginArray();
+        readCoordinateArray(reader, 0);
+        reader.endArray();
+    }
+
+    /**
+     * Reads the elements of an array of coordinates, the index-th of the enclosing array.
+     */
+    private void readCoordinateArray(final JsonReader reader, final int index)
+            throws IOException {
+        boolean ring = false;
+        int child = 0;
+        while (reader.hasNext()) {
+            if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+                reader.skipValue(); // The position of a Point
+                continue;
+            }
+
+            reader.beginArray();
+            if (reader.hasNext() && reader.peek() == JsonToken.NUMBER) {
+                double longitude = reader.nextDouble();
+                double latitude = reader.nextDouble();
+                while (reader.hasNext()) {
+                    reader.skipValue(); // Altitude
+                }
+                addCoordinate(latitude, longitude);
+                ring = true;
+            } else {
+                readCoordinateArray(reader, child);
+            }
+            reader.endArray();
+            child++;
+        }
+
+        if (ring) {
+            endRing(index);
+        }
+    }
+
+    /**
+     * Sets the kind of the rings from first to last (excluded) of a geometry of the type.
+     * The first ring of each polygon is its outline and the others are its holes.
+     */
+    private void setRingKinds(final String type, final int first, final int last) {
+        boolean lines = "LineString".equals(type) || "MultiLineString".equals(type);
+        boolean polygons = "Polygon".equals(type) || "MultiPolygon".equals(type);
+        for (int i = first; i < last; i++) {
+            if (lines) {
+                ringKinds[i] = LINE;
+            } else if (polygons) {
+                ringKinds[i] = ringKinds[i] == 0 ? OUTER : HOLE;
+            } else {
+                ringKinds[i] = IGNORED;
+            }
+        }
+    }
+
+    private void readProperties(final JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return;
+        }
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            switch (reader.peek()) {
+                case STRING:
+                    properties.put(name, reader.nextString());
+                    break;
+                case NUMBER:
+                    properties.put(name, reader.nextDouble());
+                    break;
+                case BOOLEAN:
+                    properties.put(name, reader.nextBoolean());
+                    break;
+                case NULL:
+                    reader.nextNull();
+                    properties.put(name, null);
+                    break;
+                default:
+                    // Nested objects and arrays are not kept
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+    }
+
+    private void startFeature() {
+        coordinateCount = 0;
+        ringCount = 0;
+        properties.clear();
+    }
+
+    private void addCoordinate(final double latitude, final double longitude) {
+        if (coordinateCount == latitudes.length) {
+            latitudes = grow(latitudes);
+            longitudes = grow(longitudes);
+        }
+        latitudes[coordinateCount] = latitude;
+        longitudes[coordinateCount] = longitude;
+        coordinateCount++;
+    }
+
+    private double[] grow(final double[] array) {
+        double[] grown = new double[array.length * 2];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    private void endRing(final int kind) {
+        if (ringCount == ringEnds.length) {
+            int[] grownEnds = new int[ringCount * 2];
+            int[] grownKinds = new int[ringCount * 2];
+            System.arraycopy(ringEnds, 0, grownEnds, 0, ringCount);
+            System.arraycopy(ringKinds, 0, grownKinds, 0, ringCount);
+            ringEnds = grownEnds;
+            ringKinds = grownKinds;
+        }
+        ringEnds[ringCount] = coordinateCount;
+        ringKinds[ringCount] = kind;
+        ringCount++;
+    }
+
+    /**
+     * Creates the shapes of the current feature and adds them to the layer.
+     */
+    private int emitFeature() {
+        int shapeCount = 0;
+        RichPolygon polygon = null; // Polygon receiving the holes, added to the layer after them
+        for (int i = 0; i < ringCount; i++) {
+            int start = i > 0 ? ringEnds[i - 1] : 0;
+            int count = ringEnds[i] - start;
+            if (ringKinds[i] == IGNORED) {
+                continue;
+            }
+            // Polygon rings repeat the first position at the end, but the shapes close themselves
+            if (ringKinds[i] != LINE && count > 1
+                    && latitudes[start] == latitudes[start + count - 1]
+                    && longitudes[start] == longitudes[start + count - 1]) {
+                count--;
+            }
+            if (ringKinds[i] == HOLE) {
+                if (polygon != null && count > 0) {
+                    polygon.addHole(latitudes, longitudes, start, count);
+                }
+                continue;
+            }
+
+            if (polygon != null) {
+                layer.addShape(polygon);
+                polygon = null;
+            }
+            if (count == 0) {
+                continue;
+            }
+            if (ringKinds[i] == LINE) {
+                RichPolylineOptions options = new RichPolylineOptions((List<RichPoint>) null);
+                if (style.polyline(properties, options)) {
+                    RichPolyline polyline = options.build();
+                    polyline.add(latitudes, longitudes, null, start, count);
+                    layer.addShape(polyline);
+                    shapeCount++;
+                }
+            } else {
+                RichPolygonOptions options = new RichPolygonOptions((List<RichPoint>) null);
+                if (style.polygon(properties, options)) {
+                    polygon = options.build();
+                    polygon.add(latitudes, longitudes, null, start, count);
+                    shapeCount++;
+                }
+            }
+        }
+        if (polygon != null) {
+            layer.addShape(polygon);
+        }
+        startFeature();
+        return shapeCount;
+    }
+}
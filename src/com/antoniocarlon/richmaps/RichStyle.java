@@ -0,0 +1,228 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Data-driven style of a layer: ramps overriding the stroke color, stroke width and fill
+ * color of the shapes from their attributes (see RichShape.setAttribute) or the zoom level.
+ * A shape without the attribute of a ramp keeps the style it was built with.
+ * <p>
+ * The layer evaluates the style in a single pass over the shapes it draws, and each shape
+ * keeps the result until its attributes, the style or the zoom band change, so restyling
+ * never rebuilds the geometry. Zoom ramps are evaluated at the start of each band.
+ */
+public final class RichStyle {
+    private final RichRamp strokeColor;
+    private final RichRamp strokeWidth;
+    private final RichRamp fillColor;
+    private final float zoomStep;
+
+    private RichStyle(final RichRamp strokeColor, final RichRamp strokeWidth,
+                      final RichRamp fillColor, final float zoomStep) {
+        this.strokeColor = strokeColor;
+        this.strokeWidth = strokeWidth;
+        this.fillColor = fillColor;
+        this.zoomStep = zoomStep;
+    }
+
+    /**
+     * Returns the widest stroke the style can set, 0 if it doesn't set the width.
+     */
+    float getMaxStrokeWidth() {
+        return strokeWidth != null ? (float) strokeWidth.getMaxValue() : 0;
+    }
+
+    private int getZoomBand(final double zoom) {
+        return (int) Math.floor(zoom / zoomStep);
+    }
+
+    /**
+     * Evaluates the style for the shapes whose result is stale at the zoom level,
+     * each ramp over all of them at once.
+     */
+    void apply(final List<RichShape> shapes, final double zoom) {
+        int zoomBand = getZoomBand(zoom);
+        List<RichShape> stale = null;
+        for (RichShape shape : shapes) {
+            if (!isCurrent(shape.styled, shape, zoomBand)) {
+                if (stale == null) {
+                    stale = new ArrayList<>();
+                }
+                stale.add(shape);
+            }
+        }
+
+        if (stale != null) {
+            evaluate(stale, zoomBand);
+        }
+    }
+
+    /**
+     * Returns the style of the shape at the zoom level, evaluating it if it's stale.
+     */
+    Result resolve(final RichShape shape, final double zoom) {
+        int zoomBand = getZoomBand(zoom);
+        Result result = shape.styled;
+        if (isCurrent(result, shape, zoomBand)) {
+            return result;
+        }
+        return evaluate(Collections.singletonList(shape), zoomBand)[0];
+    }
+
+    private boolean isCurrent(final Result result, final RichShape shape, final int zoomBand) {
+        return result != null && result.style == this && result.zoomBand == zoomBand
+                && result.attributesVersion == shape.attributesVersion;
+    }
+
+    private Result[] evaluate(final List<RichShape> stale, final int zoomBand) {
+        int count = stale.size();
+        long[] versions = new long[count];
+        for (int i = 0; i < count; i++) {
+            versions[i] = stale.get(i).attributesVersion; // Read before the attributes
+        }
+
+        double zoom = zoomBand * zoomStep;
+        double[] strokeColorInputs = inputs(strokeColor, stale, zoom);
+        double[] strokeWidthInputs = inputs(strokeWidth, stale, zoom);
+        double[] fillColorInputs = inputs(fillColor, stale, zoom);
+        int[] strokeColors = null;
+        double[] strokeWidths = null;
+        int[] fillColors = null;
+        if (strokeColor != null) {
+            strokeColors = new int[count];
+            strokeColor.evaluate(strokeColorInputs, count, strokeColors);
+        }
+        if (strokeWidth != null) {
+            strokeWidths = new double[count];
+            strokeWidth.evaluate(strokeWidthInputs, count, strokeWidths);
+        }
+        if (fillColor != null) {
+            fillColors = new int[count];
+            fillColor.evaluate(fillColorInputs, count, fillColors);
+        }
+
+        Result[] results = new Result[count];
+        for (int i = 0; i < count; i++) {
+            results[i] = new Result(this, zoomBand, versions[i],
+                    strokeColors != null && !Double.isNaN(strokeColorInputs[i])
+                            ? strokeColors[i] : null,
+                    strokeWidths != null && !Double.isNaN(strokeWidthInputs[i])
+                            ? (float) strokeWidths[i] : Float.NaN,
+                    fillColors != null && !Double.isNaN(fillColorInputs[i])
+                            ? fillColors[i] : null);
+            stale.get(i).styled = results[i];
+        }
+        return results;
+    }
+
+    /**
+     * Returns the input of the ramp for each shape, NaN for the shapes without its attribute.
+     */
+    private static double[] inputs(final RichRamp ramp, final List<RichShape> shapes,
+                                   final double zoom) {
+        if (ramp == null) {
+            return null;
+        }
+
+        double[] inputs = new double[shapes.size()];
+        String attribute = ramp.getAttribute();
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = attribute != null ? shapes.get(i).getAttribute(attribute) : zoom;
+        }
+        return inputs;
+    }
+
+    /**
+     * Style of a shape, null colors and a NaN width mean the shape keeps its own.
+     */
+    static final class Result {
+        final RichStyle style;
+        final int zoomBand;
+        final long attributesVersion;
+        final Integer strokeColor;
+        final float strokeWidth;
+        final Integer fillColor;
+
+        Result(final RichStyle style, final int zoomBand, final long attributesVersion,
+               final Integer strokeColor, final float strokeWidth, final Integer fillColor) {
+            this.style = style;
+            this.zoomBand = zoomBand;
+            this.attributesVersion = attributesVersion;
+            this.strokeColor = strokeColor;
+            this.strokeWidth = strokeWidth;
+            this.fillColor = fillColor;
+        }
+
+        float getStrokeWidth(final float defaultWidth) {
+            return Float.isNaN(strokeWidth) ? defaultWidth : strokeWidth;
+        }
+    }
+
+    public static class Builder {
+        private RichRamp strokeColor;
+        private RichRamp strokeWidth;
+        private RichRamp fillColor;
+        private float zoomStep = 0.5f;
+
+        public Builder strokeColor(final RichRamp ramp) {
+            if (ramp != null && !ramp.isColorRamp()) {
+                throw new IllegalArgumentException("The stroke color needs a color ramp");
+            }
+            this.strokeColor = ramp;
+            return this;
+        }
+
+        public Builder strokeWidth(final RichRamp ramp) {
+            if (ramp != null && ramp.isColorRamp()) {
+                throw new IllegalArgumentException("The stroke width needs a value ramp");
+            }
+            this.strokeWidth = ramp;
+            return this;
+        }
+
+        /**
+         * Sets the fill color of the polygons.
+         */
+        public Builder fillColor(final RichRamp ramp) {
+            if (ramp != null && !ramp.isColorRamp()) {
+                throw new IllegalArgumentException("The fill color needs a color ramp");
+            }
+            this.fillColor = ramp;
+            return this;
+        }
+
+        /**
+         * Sets the zoom levels covered by each band (0.5 by default), zoom ramps are
+         * evaluated again when the zoom enters another band.
+         */
+        public Builder zoomStep(final float zoomStep) {
+            if (zoomStep <= 0) {
+                throw new IllegalArgumentException("Zoom step must be positive");
+            }
+            this.zoomStep = zoomStep;
+            return this;
+        }
+
+        public RichStyle build() {
+            return new RichStyle(strokeColor, strokeWidth, fillColor, zoomStep);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.util.LruCache;
+
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.Tile;
+import com.google.android.gms.maps.model.TileProvider;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+/**
+ * TileProvider that renders the shapes of a RichLayer into map tiles.
+ * The map requests tiles from several threads, so they are rendered in parallel,
+ * each thread reusing its own Bitmap.
+ */
+class RichTileProvider implements TileProvider {
+    private static final int CACHE_SIZE = 8 * 1024 * 1024; // In bytes
+    // In bytes, the key and the entry of an empty tile, so they are evicted too
+    private static final int EMPTY_TILE_SIZE = 64;
+    private static final int TILE_MARGIN = 32; // In pixels, so strokes are not cut at tile edges
+
+    private RichLayer layer;
+    private int tileSize;
+    private Bitmap.Config bitmapConfig;
+    private LruCache<TileKey, Tile> cache = new LruCache<TileKey, Tile>(CACHE_SIZE) {
+        @Override
+        protected int sizeOf(final TileKey key, final Tile tile) {
+            return tile.data == null ? EMPTY_TILE_SIZE : tile.data.length;
+        }
+    };
+    private ThreadLocal<Bitmap> bitmaps = new ThreadLocal<>();
+
+    RichTileProvider(final RichLayer layer, final int tileSize, final Bitmap.Config bitmapConfig) {
+        this.layer = layer;
+        this.tileSize = tileSize;
+        this.bitmapConfig = bitmapConfig;
+    }
+
+    @Override
+    public Tile getTile(final int x, final int y, final int zoom) {
+        TileKey key = new TileKey(x, y, zoom, layer.getVersion());
+        Tile tile = cache.get(key);
+        if (tile != null) {
+            return tile;
+        }
+
+        RichMercatorProjection projection = RichMercatorProjection.forTile(x, y, zoom, tileSize,
+                TILE_MARGIN);
+        List<RichShape> shapes = layer.shapesIn(getDrawnBounds(projection));
+        if (shapes.isEmpty()) {
+            tile = NO_TILE;
+        } else {
+            Bitmap bitmap = prepareBitmap();
+            layer.draw(RichCanvasRenderer.obtain(bitmap), projection, shapes, null, 0);
+
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, stream);
+            tile = new Tile(tileSize, tileSize, stream.toByteArray());
+        }
+
+        cache.put(key, tile);
+        return tile;
+    }
+
+    /**
+     * Returns the bounds of the shapes drawn into the tile of the projection. They include
+     * a margin, so strokes are not cut at the tile edges, and the whole grid cells of the
+     * clusters crossing them, so those clusters are the same in both tiles.
+     */
+    LatLngBounds getDrawnBounds(final RichMercatorProjection projection) {
+        return layer.getDrawnBounds(projection, -TILE_MARGIN, -TILE_MARGIN,
+                tileSize + TILE_MARGIN, tileSize + TILE_MARGIN);
+    }
+
+    public void clearCache() {
+        cache.evictAll();
+    }
+
+    public void release() {
+        clearCache();
+        bitmaps = new ThreadLocal<>();
+    }
+
+    private Bitmap prepareBitmap() {
+        Bitmap bitmap = bitmaps.get();
+        if (bitmap == null || bitmap.isRecycled()) {
+            bitmap = Bitmap.createBitmap(tileSize, tileSize, bitmapConfig);
+            bitmaps.set(bitmap);
+        } else {
+            bitmap.eraseColor(Color.TRANSPARENT);
+        }
+        return bitmap;
+    }
+
+    private static class TileKey {
+        final int x;
+        final int y;
+        final int zoom;
+        final long version;
+
+        TileKey(final int x, final int y, final int zoom, final long version) {
+            this.x = x;
+            this.y = y;
+            this.zoom = zoom;
+            this.version = version;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof TileKey)) {
+                return false;
+            }
+            TileKey other = (TileKey) o;
+            return x == other.x && y == other.y && zoom == other.zoom && version == other.version;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = x;
+            result = 31 * result + y;
+            result = 31 * result + zoom;
+            result = 31 * result + (int) (version ^ (version >>> 32));
+            return result;
+        }
+    }
+}
@@ -0,0 +1,481 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+import android.graphics.Color;
+import android.graphics.MaskFilter;
+import android.graphics.PathEffect;
+import android.graphics.Shader;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Polyline for live data that only grows at its end (e.g. a GPS track), built with
+ * RichPolylineOptions.buildTrack. Its screen coordinates are kept while the camera
+ * doesn't move, so appending points only projects the new ones, and the layer only draws
+ * again the area of the new segments, where the track only strokes the chunks of points
+ * crossing it.
+ * <p>
+ * With a capacity, the points are kept in a ring and the oldest one is dropped in constant
+ * time when a new one doesn't fit. The dropped segments are erased from the map in batches.
+ * Points without position are skipped, and tracks are never closed nor simplified.
+ */
+public class RichTrack extends RichPolyline {
+    private static final int CHUNK_SIZE = 64; // Points culled together against the clip
+    private static final int INITIAL_LENGTH = 64;
+
+    private final int capacity; // 0 if the track has no limit
+
+    // Ring of points, the point with sequence number s is stored at s % length
+    private double[] positions; // Latitude and longitude
+    private double[] worldCoordinates;
+    private int[] colors;
+    private long first = 0; // Sequence number of the oldest point
+    private long end = 0; // Sequence number of the next point
+
+    // Screen coordinates of the points for the last projection, and bounds of each chunk.
+    // A projection is created for each frame and tile, so the projection is identified by
+    // its scale and where it draws two reference points (which fixes its origin and bearing)
+    private double cachedScale = Double.NaN;
+    private final double[] referencePoints = new double[4]; // World coordinates
+    private final float[] cachedReferences = new float[4];
+    private final float[] references = new float[4];
+    private long projectedEnd;
+    private float[] screen;
+    private float[] chunkBounds; // Left, top, right, bottom
+    private final double[] worldPoint = new double[2];
+    private final float[] screenPoint = new float[2];
+
+    // Area to draw again, not notified to the layer yet
+    private double changedMinLatitude = Double.MAX_VALUE;
+    private double changedMinLongitude = Double.MAX_VALUE;
+    private double changedMaxLatitude = -Double.MAX_VALUE;
+    private double changedMaxLongitude = -Double.MAX_VALUE;
+
+    // Area of the points dropped since it was last drawn again
+    private double droppedMinLatitude = Double.MAX_VALUE;
+    private double droppedMinLongitude = Double.MAX_VALUE;
+    private double droppedMaxLatitude = -Double.MAX_VALUE;
+    private double droppedMaxLongitude = -Double.MAX_VALUE;
+    private int dropped = 0;
+    private int droppedSinceBounds = 0;
+
+    RichTrack(final int zIndex,
+              final int strokeWidth,
+              final RichPaint.Cap strokeCap,
+              final RichPaint.Join strokeJoin,
+              final PathEffect pathEffect,
+              final MaskFilter maskFilter,
+              final Shader strokeShader,
+              final boolean linearGradient,
+              final Integer strokeColor,
+              final boolean antialias,
+              final int capacity) {
+        super(zIndex, null, strokeWidth, strokeCap, strokeJoin, pathEffect, maskFilter,
+                strokeShader, linearGradient, strokeColor, antialias, false, 0);
+        if (capacity < 0 || capacity == 1) {
+            throw new IllegalArgumentException("Capacity must be 0 (no limit) or at least 2");
+        }
+
+        this.capacity = capacity;
+        allocate(capacity > 0 ? Math.min(capacity, INITIAL_LENGTH) : INITIAL_LENGTH);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public synchronized RichShape add(final double latitude, final double longitude,
+                                      final int color) {
+        append(latitude, longitude, color);
+        notifyAppended();
+        return this;
+    }
+
+    @Override
+    public synchronized RichShape add(final double[] latitudes, final double[] longitudes,
+                                      final int[] pointColors, final int offset,
+                                      final int count) {
+        checkArrays(latitudes, longitudes, pointColors);
+        checkRange(latitudes, offset, count);
+        int defaultColor = getColor(strokeColor);
+        for (int i = offset; i < offset + count; i++) {
+            append(latitudes[i], longitudes[i],
+                    pointColors != null ? pointColors[i] : defaultColor);
+        }
+        notifyAppended();
+        return this;
+    }
+
+    private void append(final double latitude, final double longitude, final int color) {
+        if (Double.isNaN(latitude) || Double.isNaN(longitude)) {
+            return;
+        }
+
+        if (end > first) {
+            // The new segment starts at the last point
+            int last = slot(end - 1);
+            includeInChanged(positions[last * 2], positions[last * 2 + 1]);
+        }
+        if (capacity > 0 && end - first == capacity) {
+            drop();
+        } else if (end - first == colors.length) {
+            grow();
+        }
+
+        int slot = slot(end);
+        positions[slot * 2] = latitude;
+        positions[slot * 2 + 1] = longitude;
+        worldCoordinates[slot * 2] = RichUtils.toWorldX(longitude);
+        worldCoordinates[slot * 2 + 1] = RichUtils.toWorldY(latitude);
+        colors[slot] = color;
+        end++;
+        includeInBounds(latitude, longitude);
+        includeInChanged(latitude, longitude);
+    }
+
+    /**
+     * Drops the oldest point, its slot is reused by the next one.
+     */
+    private void drop() {
+        int slot = slot(first);
+        double latitude = positions[slot * 2];
+        double longitude = positions[slot * 2 + 1];
+        droppedMinLatitude = Math.min(droppedMinLatitude, latitude);
+        droppedMinLongitude = Math.min(droppedMinLongitude, longitude);
+        droppedMaxLatitude = Math.max(droppedMaxLatitude, latitude);
+        droppedMaxLongitude = Math.max(droppedMaxLongitude, longitude);
+        first++;
+        dropped++;
+        droppedSinceBounds++;
+    }
+
+    /**
+     * Doubles the ring (up to the capacity), keeping each point at its sequence number
+     * modulo the new length.
+     */
+    private void grow() {
+        double[] oldPositions = positions;
+        double[] oldWorldCoordinates = worldCoordinates;
+        int[] oldColors = colors;
+        int length = colors.length * 2;
+        allocate(capacity > 0 ? Math.min(length, capacity) : length);
+
+        for (long s = first; s < end; s++) {
+            int from = (int) (s % oldColors.length);
+            int to = slot(s);
+            positions[to * 2] = oldPositions[from * 2];
+            positions[to * 2 + 1] = oldPositions[from * 2 + 1];
+            worldCoordinates[to * 2] = oldWorldCoordinates[from * 2];
+            worldCoordinates[to * 2 + 1] = oldWorldCoordinates[from * 2 + 1];
+            colors[to] = oldColors[from];
+        }
+    }
+
+    private void allocate(final int length) {
+        positions = new double[length * 2];
+        worldCoordinates = new double[length * 2];
+        colors = new int[length];
+        screen = new float[length * 2];
+        // The live points span at most length / CHUNK_SIZE + 2 chunks
+        chunkBounds = new float[(length / CHUNK_SIZE + 2) * 4];
+        cachedScale = Double.NaN;
+    }
+
+    private int slot(final long sequence) {
+        return (int) (sequence % colors.length);
+    }
+
+    private int chunkSlot(final long chunk) {
+        return (int) (chunk % (chunkBounds.length / 4)) * 4;
+    }
+
+    private void includeInChanged(final double latitude, final double longitude) {
+        changedMinLatitude = Math.min(changedMinLatitude, latitude);
+        changedMinLongitude = Math.min(changedMinLongitude, longitude);
+        changedMaxLatitude = Math.max(changedMaxLatitude, latitude);
+        changedMaxLongitude = Math.max(changedMaxLongitude, longitude);
+    }
+
+    /**
+     * Notifies the layer of the area of the new segments and, once enough points were
+     * dropped, of the area they covered (so a long track isn't drawn again on every point).
+     */
+    private void notifyAppended() {
+        if (dropped >= CHUNK_SIZE) {
+            int slot = slot(first); // The dropped segments end at the oldest point
+            includeInChanged(positions[slot * 2], positions[slot * 2 + 1]);
+            includeInChanged(droppedMinLatitude, droppedMinLongitude);
+            includeInChanged(droppedMaxLatitude, droppedMaxLongitude);
+            droppedMinLatitude = Double.MAX_VALUE;
+            droppedMinLongitude = Double.MAX_VALUE;
+            droppedMaxLatitude = -Double.MAX_VALUE;
+            droppedMaxLongitude = -Double.MAX_VALUE;
+            dropped = 0;
+        }
+        if (droppedSinceBounds >= Math.max(CHUNK_SIZE, capacity / 2)) {
+            // Shrinks the bounds, amortized over half the capacity
+            minLatitude = Double.MAX_VALUE;
+            minLongitude = Double.MAX_VALUE;
+            maxLatitude = -Double.MAX_VALUE;
+            maxLongitude = -Double.MAX_VALUE;
+            for (long s = first; s < end; s++) {
+                int slot = slot(s);
+                includeInBounds(positions[slot * 2], positions[slot * 2 + 1]);
+            }
+            droppedSinceBounds = 0;
+        }
+
+        if (changedMinLatitude <= changedMaxLatitude) {
+            LatLngBounds changed = new LatLngBounds(
+                    new LatLng(changedMinLatitude, changedMinLongitude),
+                    new LatLng(changedMaxLatitude, changedMaxLongitude));
+            changedMinLatitude = Double.MAX_VALUE;
+            changedMinLongitude = Double.MAX_VALUE;
+            changedMaxLatitude = -Double.MAX_VALUE;
+            changedMaxLongitude = -Double.MAX_VALUE;
+            notifyChanged(changed);
+        }
+    }
+
+    @Override
+    public synchronized List<RichPoint> getPoints() {
+        List<RichPoint> points = new ArrayList<>((int) (end - first));
+        for (long s = first; s < end; s++) {
+            int slot = slot(s);
+            points.add(new RichPoint(new LatLng(positions[slot * 2], positions[slot * 2 + 1]))
+                    .color(colors[slot]));
+        }
+        return points;
+    }
+
+    /**
+     * Returns a copy of the current points, from the oldest one.
+     */
+    synchronized RichVertices copyVertices() {
+        RichVertices copy = new RichVertices();
+        for (long s = first; s < end; s++) {
+            int slot = slot(s);
+            copy.add(positions[slot * 2], positions[slot * 2 + 1], colors[slot]);
+        }
+        return copy;
+    }
+
+    @Override
+    int getVertexCount() {
+        return (int) (end - first);
+    }
+
+    @Override
+    synchronized int getFirstColor() {
+        return end > first ? colors[slot(first)] : Color.TRANSPARENT;
+    }
+
+    @Override
+    protected synchronized boolean hits(final double x, final double y, final double scale,
+                                        final float tolerance) {
+        if (end == first) {
+            return false;
+        }
+
+        double distance = (tolerance + getDrawnStrokeWidth() / 2f) / scale;
+        double maxDistance = distance * distance;
+        int previous = slot(first);
+        if (squaredSegmentDistance(x, y, previous, previous) <= maxDistance) {
+            return true;
+        }
+        for (long s = first + 1; s < end; s++) {
+            int slot = slot(s);
+            if (squaredSegmentDistance(x, y, previous, slot) <= maxDistance) {
+                return true;
+            }
+            previous = slot;
+        }
+        return false;
+    }
+
+    private double squaredSegmentDistance(final double x, final double y,
+                                          final int from, final int to) {
+        double x1 = worldCoordinates[from * 2];
+        double y1 = worldCoordinates[from * 2 + 1];
+        double dx = worldCoordinates[to * 2] - x1;
+        double dy = worldCoordinates[to * 2 + 1] - y1;
+
+        if (dx != 0 || dy != 0) {
+            double t = ((x - x1) * dx + (y - y1) * dy) / (dx * dx + dy * dy);
+            if (t > 1) {
+                x1 += dx;
+                y1 += dy;
+            } else if (t > 0) {
+                x1 += dx * t;
+                y1 += dy * t;
+            }
+        }
+
+        return (x - x1) * (x - x1) + (y - y1) * (y - y1);
+    }
+
+    @Override
+    public synchronized void doDraw(final RichRenderer renderer,
+                                    final RichProjection projection) {
+        if (end - first < 2) {
+            return;
+        }
+
+        project(projection);
+        RichStyle.Result style = getStyle(projection);
+        float width = style != null ? style.getStrokeWidth(strokeWidth) : strokeWidth;
+        Integer color = style != null ? style.strokeColor : null;
+        setStroke(renderer, width);
+        boolean gradient = color == null && linearGradient && strokeShader == null;
+
+        // Consecutive chunks crossing the clip are drawn as a single run
+        float margin = width / 2f + 1;
+        long lastChunk = (end - 1) / CHUNK_SIZE;
+        long runStart = -1;
+        for (long chunk = first / CHUNK_SIZE; chunk <= lastChunk; chunk++) {
+            int c = chunkSlot(chunk);
+            boolean visible = !renderer.quickReject(chunkBounds[c] - margin,
+                    chunkBounds[c + 1] - margin, chunkBounds[c + 2] + margin,
+                    chunkBounds[c + 3] + margin);
+            if (visible && runStart < 0) {
+                runStart = chunk;
+            } else if (!visible && runStart >= 0) {
+                drawRun(renderer, runStart, chunk - 1, gradient, color);
+                runStart = -1;
+            }
+        }
+        if (runStart >= 0) {
+            drawRun(renderer, runStart, lastChunk, gradient, color);
+        }
+    }
+
+    /**
+     * Projects the points added since the last draw, or all of them if the projection
+     * changed, growing the bounds of their chunks. A chunk includes the segment
+     * reaching its first point.
+     */
+    private void project(final RichProjection projection) {
+        if (!isCached(projection) || projectedEnd < first) {
+            cache(projection);
+            projectedEnd = first;
+        }
+
+        for (long s = projectedEnd; s < end; s++) {
+            int slot = slot(s);
+            worldPoint[0] = worldCoordinates[slot * 2];
+            worldPoint[1] = worldCoordinates[slot * 2 + 1];
+            projection.toScreenLocations(worldPoint, 1, screenPoint);
+            float x = screenPoint[0];
+            float y = screenPoint[1];
+            screen[slot * 2] = x;
+            screen[slot * 2 + 1] = y;
+
+            int c = chunkSlot(s / CHUNK_SIZE);
+            if (s == first || s % CHUNK_SIZE == 0) {
+                chunkBounds[c] = x;
+                chunkBounds[c + 1] = y;
+                chunkBounds[c + 2] = x;
+                chunkBounds[c + 3] = y;
+                if (s > first) {
+                    int previous = slot(s - 1);
+                    includeInChunk(c, screen[previous * 2], screen[previous * 2 + 1]);
+                }
+            } else {
+                includeInChunk(c, x, y);
+            }
+        }
+        projectedEnd = end;
+    }
+
+    /**
+     * Returns whether the projection draws the world like the one of the screen
+     * coordinates, even if it's another object.
+     */
+    private boolean isCached(final RichProjection projection) {
+        if (projection.getScale() != cachedScale) {
+            return false;
+        }
+        projection.toScreenLocations(referencePoints, 2, references);
+        return Arrays.equals(references, cachedReferences);
+    }
+
+    /**
+     * Keeps the scale of the projection and where it draws the corners of its visible
+     * bounds, which are near the Bitmap so their screen coordinates are precise.
+     */
+    private void cache(final RichProjection projection) {
+        LatLngBounds bounds = projection.getVisibleBounds();
+        referencePoints[0] = RichUtils.toWorldX(bounds.southwest.longitude);
+        referencePoints[1] = RichUtils.toWorldY(bounds.northeast.latitude);
+        referencePoints[2] = RichUtils.toWorldX(bounds.northeast.longitude);
+        referencePoints[3] = RichUtils.toWorldY(bounds.southwest.latitude);
+        projection.toScreenLocations(referencePoints, 2, cachedReferences);
+        cachedScale = projection.getScale();
+    }
+
+    private void includeInChunk(final int c, final float x, final float y) {
+        chunkBounds[c] = Math.min(chunkBounds[c], x);
+        chunkBounds[c + 1] = Math.min(chunkBounds[c + 1], y);
+        chunkBounds[c + 2] = Math.max(chunkBounds[c + 2], x);
+        chunkBounds[c + 3] = Math.max(chunkBounds[c + 3], y);
+    }
+
+    /**
+     * Draws the segments of the chunks from fromChunk to toChunk like RichPolyline does,
+     * or with a single color if the style of the layer sets it.
+     */
+    private void drawRun(final RichRenderer renderer, final long fromChunk, final long toChunk,
+                         final boolean gradient, final Integer color) {
+        long from = Math.max(first, fromChunk * CHUNK_SIZE - 1);
+        long to = Math.min(end - 1, (toChunk + 1) * CHUNK_SIZE - 1);
+        if (to <= from) {
+            return;
+        }
+
+        int last = slot(from);
+        if (gradient) {
+            for (long s = from + 1; s <= to; s++) {
+                int i = slot(s);
+                renderer.strokeLine(screen[last * 2], screen[last * 2 + 1], screen[i * 2],
+                        screen[i * 2 + 1], colors[last], colors[i]);
+                last = i;
+            }
+            return;
+        }
+
+        int runColor = color != null ? color : colors[last];
+        renderer.moveTo(screen[last * 2], screen[last * 2 + 1]);
+        for (long s = from + 1; s <= to; s++) {
+            int i = slot(s);
+            if (color == null && colors[last] != runColor) {
+                strokePath(renderer, runColor, strokeShader);
+                renderer.moveTo(screen[last * 2], screen[last * 2 + 1]);
+                runColor = colors[last];
+            }
+            renderer.lineTo(screen[i * 2], screen[i * 2 + 1]);
+            last = i;
+        }
+        strokePath(renderer, runColor, color != null ? null : strokeShader);
+    }
+}
@@ -1,33 +1,59 @@
-/*
- * Copyright 2016 ANTONIO CARLON
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- * http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-
-package com.antoniocarlon.richmaps;
-
-public class RichUtils {
-    public static boolean intersectsRectangle(final double checkMinX,
-                                              final double checkMinY, final double checkMaxX,
-                                              final double checkMaxY, final double againstMinX,
-                                              final double againstMinY, final double againstMaxX,
-                                              final double againstMaxY) {
-        boolean output = false;
-
-        if (againstMaxX > checkMinX && againstMinX < checkMaxX
-                && againstMaxY > checkMinY && againstMinY < checkMaxY) {
-            output = true;
-        }
-        return output;
-    }
-}
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+public class RichUtils {
+    static final double MAX_LATITUDE = 85.05112877980659; // Web Mercator limit
+
+    public static boolean intersectsRectangle(final double checkMinX,
+                                              final double checkMinY, final double checkMaxX,
+                                              final double checkMaxY, final double againstMinX,
+                                              final double againstMinY, final double againstMaxX,
+                                              final double againstMaxY) {
+        boolean output = false;
+
+        if (againstMaxX > checkMinX && againstMinX < checkMaxX
+                && againstMaxY > checkMinY && againstMinY < checkMaxY) {
+            output = true;
+        }
+        return output;
+    }
+
+    /**
+     * Converts a longitude into a Web Mercator world coordinate, from 0 (west) to 1 (east).
+     */
+    public static double toWorldX(final double longitude) {
+        return (longitude + 180) / 360;
+    }
+
+    /**
+     * Converts a latitude into a Web Mercator world coordinate, from 0 (north) to 1 (south).
+     */
+    public static double toWorldY(final double latitude) {
+        double sinLatitude = Math.sin(Math.toRadians(
+                Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude))));
+        return 0.5 - Math.log((1 + sinLatitude) / (1 - sinLatitude)) / (4 * Math.PI);
+    }
+
+    public static double toLongitude(final double worldX) {
+        return worldX * 360 - 180;
+    }
+
+    public static double toLatitude(final double worldY) {
+        return Math.toDegrees(Math.atan(Math.sinh(Math.PI - 2 * Math.PI * worldY)));
+    }
+}
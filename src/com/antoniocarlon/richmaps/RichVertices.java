@@ -0,0 +1,392 @@
+/*
+ * Copyright 2016 ANTONIO CARLON
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.antoniocarlon.richmaps;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sequence of points of a shape (its outline or a hole) stored as parallel primitive
+ * arrays, together with their positions precomputed as Web Mercator world coordinates
+ * so they don't need to be projected again on each frame.
+ * RichPoint instances are only created as views when the points are requested.
+ */
+class RichVertices {
+    private static final int INITIAL_CAPACITY = 8;
+    // Zoom bands with simplifications, scales up to 2^40 pixels per world unit (beyond zoom 30)
+    private static final int BANDS = 40;
+
+    private int size = 0;
+    private double[] positions = new double[INITIAL_CAPACITY * 2]; // lat0, lng0, lat1, lng1...
+    private double[] worldCoordinates = new double[INITIAL_CAPACITY * 2]; // x0, y0, x1, y1...
+    private int[] colors = new int[INITIAL_CAPACITY];
+
+    // Indices of the vertices with position, and their simplification per tolerance and zoom band
+    private int[] positioned;
+    private float[] tolerances;
+    private int[][][] simplified;
+
+    /**
+     * Adds a vertex, latitude and longitude are NaN if it has no position. The vertices can
+     * be added while the shape is drawn from another thread.
+     */
+    public synchronized void add(final double latitude, final double longitude, final int color) {
+        ensureCapacity(size + 1);
+        set(size++, latitude, longitude, color);
+        positioned = null;
+        tolerances = null;
+        simplified = null;
+    }
+
+    /**
+     * Adds count vertices from the given arrays, starting at offset. If colors is null
+     * all of them get defaultColor.
+     */
+    public synchronized void add(final double[] latitudes, final double[] longitudes, final int[] colors,
+                    final int defaultColor, final int offset, final int count) {
+        ensureCapacity(size + count);
+        for (int i = offset; i < offset + count; i++) {
+            set(size++, latitudes[i], longitudes[i], colors != null ? colors[i] : defaultColor);
+        }
+        positioned = null;
+        tolerances = null;
+        simplified = null;
+    }
+
+    private void set(final int index, final double latitude, final double longitude,
+                     final int color) {
+        positions[index * 2] = latitude;
+        positions[index * 2 + 1] = longitude;
+        if (!Double.isNaN(latitude) && !Double.isNaN(longitude)) {
+            worldCoordinates[index * 2] = RichUtils.toWorldX(longitude);
+            worldCoordinates[index * 2 + 1] = RichUtils.toWorldY(latitude);
+        } else {
+            worldCoordinates[index * 2] = Double.NaN;
+            worldCoordinates[index * 2 + 1] = Double.NaN;
+        }
+        colors[index] = color;
+    }
+
+    private void ensureCapacity(final int capacity) {
+        if (colors.length < capacity) {
+            int grown = Math.max(capacity, colors.length * 2);
+            positions = copyOf(positions, grown * 2);
+            worldCoordinates = copyOf(worldCoordinates, grown * 2);
+            int[] grownColors = new int[grown];
+            System.arraycopy(colors, 0, grownColors, 0, size);
+            colors = grownColors;
+        }
+    }
+
+    private double[] copyOf(final double[] array, final int length) {
+        double[] grown = new double[length];
+        System.arraycopy(array, 0, grown, 0, size * 2);
+        return grown;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public double getLatitude(final int index) {
+        return positions[index * 2];
+    }
+
+    public double getLongitude(final int index) {
+        return positions[index * 2 + 1];
+    }
+
+    public int getColor(final int index) {
+        return colors[index];
+    }
+
+    public void setColor(final int index, final int color) {
+        colors[index] = color;
+    }
+
+    /**
+     * Returns a view of the vertex at the given index.
+     */
+    public RichPoint get(final int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return new Vertex(index);
+    }
+
+    /**
+     * Returns a read-only list of views of the vertices.
+     */
+    public List<RichPoint> getPoints() {
+        return new AbstractList<RichPoint>() {
+            @Override
+            public RichPoint get(final int index) {
+                return RichVertices.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Returns false for points without position, which are not drawn.
+     */
+    public boolean hasPosition(final int index) {
+        return !Double.isNaN(worldCoordinates[index * 2]);
+    }
+
+    /**
+     * Returns the indices of the vertices to draw at the given scale (pixels per world unit).
+     * If tolerance is positive the vertices are simplified (Douglas-Peucker) so no point is
+     * removed further than tolerance pixels from the line. The result is cached per tolerance and
+     * zoom band.
+     */
+    public synchronized int[] select(final double scale, final float tolerance) {
+        if (positioned == null) {
+            positioned = findPositioned();
+        }
+        if (tolerance <= 0 || positioned.length <= 2) {
+            return positioned;
+        }
+
+        // The scale doubles on each zoom level, so the band is its binary exponent
+        int band = Math.max(0, Math.getExponent(scale));
+        if (band >= BANDS) {
+            return positioned; // Too close for any simplification to be worth it
+        }
+        int slot = findTolerance(tolerance);
+        int[][] bands = simplified[slot];
+        if (bands[band] == null) {
+            // Use the largest scale of the band so the tolerance holds for all of it
+            double worldTolerance = tolerance / Math.scalb(1.0, band + 1);
+            bands[band] = simplify(worldTolerance * worldTolerance);
+        }
+        return bands[band];
+    }
+
+    /**
+     * Returns the slot of the simplifications with the given tolerance, adding it if needed.
+     * There are only a few: the tolerance of the shape and the one of degraded frames.
+     */
+    private int findTolerance(final float tolerance) {
+        int count = tolerances != null ? tolerances.length : 0;
+        for (int i = 0; i < count; i++) {
+            if (tolerances[i] == tolerance) {
+                return i;
+            }
+        }
+
+        tolerances = count > 0 ? Arrays.copyOf(tolerances, count + 1) : new float[1];
+        simplified = count > 0 ? Arrays.copyOf(simplified, count + 1) : new int[1][][];
+        tolerances[count] = tolerance;
+        simplified[count] = new int[BANDS][];
+        return count;
+    }
+
+    private int[] findPositioned() {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (hasPosition(i)) {
+                count++;
+            }
+        }
+
+        int[] indices = new int[count];
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            if (hasPosition(i)) {
+                indices[j++] = i;
+            }
+        }
+        return indices;
+    }
+
+    private int[] simplify(final double squaredTolerance) {
+        int n = positioned.length;
+        boolean[] keep = new boolean[n];
+        keep[0] = true;
+        keep[n - 1] = true;
+        int kept = 2;
+
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = n - 1;
+        while (top > 0) {
+            int end = stack[--top];
+            int start = stack[--top];
+
+            int farthest = -1;
+            double maxDistance = squaredTolerance;
+            for (int i = start + 1; i < end; i++) {
+                double distance = squaredSegmentDistance(positioned[i],
+                        positioned[start], positioned[end]);
+                if (distance > maxDistance) {
+                    farthest = i;
+                    maxDistance = distance;
+                }
+            }
+
+            if (farthest >= 0) {
+                keep[farthest] = true;
+                kept++;
+                if (top + 4 > stack.length) {
+                    int[] grown = new int[stack.length * 2];
+                    System.arraycopy(stack, 0, grown, 0, top);
+                    stack = grown;
+                }
+                stack[top++] = start;
+                stack[top++] = farthest;
+                stack[top++] = farthest;
+                stack[top++] = end;
+            }
+        }
+
+        int[] indices = new int[kept];
+        int j = 0;
+        for (int i = 0; i < n; i++) {
+            if (keep[i]) {
+                indices[j++] = positioned[i];
+            }
+        }
+        return indices;
+    }
+
+    private double squaredSegmentDistance(final int point, final int from, final int to) {
+        return squaredSegmentDistance(worldCoordinates[point * 2], worldCoordinates[point * 2 + 1],
+                from, to);
+    }
+
+    private double squaredSegmentDistance(final double x, final double y,
+                                          final int from, final int to) {
+        double x1 = worldCoordinates[from * 2];
+        double y1 = worldCoordinates[from * 2 + 1];
+        double dx = worldCoordinates[to * 2] - x1;
+        double dy = worldCoordinates[to * 2 + 1] - y1;
+
+        if (dx != 0 || dy != 0) {
+            double t = ((x - x1) * dx + (y - y1) * dy) / (dx * dx + dy * dy);
+            if (t > 1) {
+                x1 += dx;
+                y1 += dy;
+            } else if (t > 0) {
+                x1 += dx * t;
+                y1 += dy * t;
+            }
+        }
+
+        dx = x - x1;
+        dy = y - y1;
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Returns the squared distance in world units from (x, y) to the line joining the
+     * vertices with position, back to the first one if closed.
+     */
+    public synchronized double squaredDistance(final double x, final double y,
+                                               final boolean closed) {
+        if (positioned == null) {
+            positioned = findPositioned();
+        }
+        int n = positioned.length;
+        if (n == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+
+        double distance = squaredSegmentDistance(x, y, positioned[0], positioned[0]);
+        for (int k = 1; k < n; k++) {
+            distance = Math.min(distance,
+                    squaredSegmentDistance(x, y, positioned[k - 1], positioned[k]));
+        }
+        if (closed && n > 2) {
+            distance = Math.min(distance,
+                    squaredSegmentDistance(x, y, positioned[n - 1], positioned[0]));
+        }
+        return distance;
+    }
+
+    /**
+     * Returns true if (x, y) is inside the ring of the vertices with position
+     * (even-odd rule).
+     */
+    public synchronized boolean contains(final double x, final double y) {
+        if (positioned == null) {
+            positioned = findPositioned();
+        }
+
+        boolean inside = false;
+        int n = positioned.length;
+        for (int k = 0, j = n - 1; k < n; j = k++) {
+            double xk = worldCoordinates[positioned[k] * 2];
+            double yk = worldCoordinates[positioned[k] * 2 + 1];
+            double xj = worldCoordinates[positioned[j] * 2];
+            double yj = worldCoordinates[positioned[j] * 2 + 1];
+            if ((yk > y) != (yj > y) && x < (xj - xk) * (y - yk) / (yj - yk) + xk) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * Projects the vertices into the given array as x0, y0, x1, y1..., as many as fit in it
+     * (vertices added after sizing it are not drawn yet).
+     */
+    public synchronized void project(final RichProjection projection,
+                                     final float[] screenCoordinates) {
+        projection.toScreenLocations(worldCoordinates,
+                Math.min(size, screenCoordinates.length / 2), screenCoordinates);
+    }
+
+    /**
+     * RichPoint backed by a vertex, setting its color changes the color of the vertex.
+     */
+    private class Vertex extends RichPoint {
+        private final int index;
+
+        Vertex(final int index) {
+            super(null);
+            this.index = index;
+        }
+
+        @Override
+        public RichPoint color(final Integer color) {
+            if (color != null) {
+                colors[index] = color;
+            }
+            return this;
+        }
+
+        @Override
+        public LatLng getPosition() {
+            return hasPosition(index)
+                    ? new LatLng(positions[index * 2], positions[index * 2 + 1]) : null;
+        }
+
+        @Override
+        public Integer getColor() {
+            return colors[index];
+        }
+    }
+}